@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+/**
+ * Times reading number and string array literals of growing sizes, up to a million elements,
+ * to show that reading them takes linear time.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLArrayBenchmark
+ * </pre>
+ * It exits with status 1 if an array is read wrong, or if the time per element of the largest 
+ * arrays is more than {@value #MAX_SLOWDOWN} times that of the smallest.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLArrayBenchmark
+{
+	/** Array sizes, in elements. */
+	private static final int[] SIZES = {10000, 100000, 1000000};
+	/** How many times slower per element the largest arrays can be read than the smallest. */
+	private static final int MAX_SLOWDOWN = 4;
+	/** Reads of each array, after warming up. */
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args)
+	{
+		DLReader reader = new DLReader();
+		boolean ok = true;
+		ok &= run(reader, "numbers", false);
+		ok &= run(reader, "strings", true);
+		if (!ok)
+			System.exit(1);
+	}
+	
+	/**
+	 * Times reading arrays of each size.
+	 * @return true if every array was read right, and the time per element stayed within bounds.
+	 */
+	private static boolean run(DLReader reader, String name, boolean strings)
+	{
+		double first = 0.0;
+		double last = 0.0;
+		boolean ok = true;
+		for (int size : SIZES)
+		{
+			String source = source(size, strings);
+			reader.read(source);
+			
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < ROUNDS; i++)
+			{
+				long time = System.nanoTime();
+				DLStruct struct = reader.read(source);
+				time = System.nanoTime() - time;
+				best = Math.min(best, time);
+				
+				DLValue value = struct.getValue("a");
+				int length = strings ? value.getStringArray().length : value.getDoubleArray().length;
+				if (length != size || (strings ? !value.getStringArray()[size - 1].equals("s" + (size - 1)) : value.getDoubleArray()[size - 1] != size - 1))
+				{
+					System.out.println(name + ": array of " + size + " read wrong.");
+					ok = false;
+				}
+			}
+			
+			double perElement = (double)best / size;
+			if (first == 0.0)
+				first = perElement;
+			last = perElement;
+			System.out.printf("%s: %,d elements in %d ms (%.1f ns per element)%n", name, size, best / 1000000, perElement);
+		}
+		
+		if (last > first * MAX_SLOWDOWN)
+		{
+			System.out.println(name + ": reading is not linear.");
+			ok = false;
+		}
+		return ok;
+	}
+	
+	/**
+	 * Makes a source with one array field of a size.
+	 */
+	private static String source(int size, boolean strings)
+	{
+		StringBuilder sb = new StringBuilder(size * 10);
+		sb.append("a [");
+		for (int i = 0; i < size; i++)
+		{
+			if (i > 0)
+				sb.append(", ");
+			if (strings)
+				sb.append("\"s").append(i).append('"');
+			else
+				sb.append(i);
+		}
+		sb.append("];");
+		return sb.toString();
+	}
+	
+}
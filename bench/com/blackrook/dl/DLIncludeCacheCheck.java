@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Checks that reading through a {@link DLIncludeCache} gives the same tree as reading without one:
+ * plainly, lazily, with a projection, and with includes prefetched, for a file that includes
+ * a library of archetypes, and a file that includes another file, both at the top level and
+ * inside a structure. Reading again must hit the cache, the library must be cached compiled,
+ * and a changed nested file must be read again.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLIncludeCacheCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLIncludeCacheCheck
+{
+	/** UTF-8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	/** Number of reads of each kind. */
+	private static final int READS = 3;
+
+	/** Number of failed checks. */
+	private static int failures = 0;
+	/** True if the archetype library was cached compiled. */
+	private static boolean libraryCompiled = false;
+
+	public static void main(String[] args) throws IOException
+	{
+		Path dir = Files.createTempDirectory("dlcheck");
+		Path library = dir.resolve("library.dl");
+		Path parts = dir.resolve("parts.dl");
+		Path nested = dir.resolve("nested.dl");
+		Path main = dir.resolve("main.dl");
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			write(library, ".pt(x, y, z);\n.col(r, g, b);\n");
+			write(parts, "part \"p1\" { w 1; }\n#include \"nested.dl\"\npart \"p2\" : part \"p1\" { w 2; }\n");
+			write(nested, "inner { v 5; pt (1, 2, 3); }\n");
+			write(main, "#include \"library.dl\"\n#include \"parts.dl\"\n"
+				+ "thing \"a\" { pt (4, 5, 6); col (7, 8, \"nine\"); }\n"
+				+ "holder { #include \"parts.dl\"\n extra 1; }\n");
+
+			check(main, "plain", new DLReader(), new DLReader());
+			check(main, "lazy", lazy(new DLReader()), lazy(new DLReader()));
+			check(main, "projected", project(new DLReader()), project(new DLReader()));
+			check(main, "prefetched", prefetch(new DLReader(), executor), prefetch(new DLReader(), executor));
+			check("library cached compiled", libraryCompiled);
+
+			// a changed nested file is read again, through a cache that has the old one.
+			DLReader cached = new DLReader();
+			cached.setIncludeCache(new Cache());
+			String before = write(cached.read(main));
+			// a new length gives it a new key, even if its modification time is the same.
+			write(nested, "inner { v 6; pt (1, 2, 3); extra \"changed\"; }\n");
+			String after = write(cached.read(main));
+			check("changed file read again", !before.equals(after) && after.equals(write(new DLReader().read(main))));
+		} finally {
+			executor.shutdown();
+			for (Path p : new Path[]{library, parts, nested, main})
+				Files.deleteIfExists(p);
+			Files.delete(dir);
+		}
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Reads a file with and without a cache, several times, and checks that each read is the same.
+	 */
+	private static void check(Path file, String name, DLReader uncached, DLReader cached) throws IOException
+	{
+		Cache cache = new Cache();
+		cached.setIncludeCache(cache);
+		String expected = write(uncached.read(file));
+		boolean same = true;
+		for (int i = 0; i < READS; i++)
+			same &= expected.equals(write(cached.read(file)));
+		check(name + ": same as uncached", same);
+		check(name + ": cache hit", cache.getHits() > 0);
+	}
+
+	/**
+	 * Sets a reader to read lazily.
+	 */
+	private static DLReader lazy(DLReader reader)
+	{
+		reader.setLazy(true);
+		return reader;
+	}
+
+	/**
+	 * Sets a reader to read only some structures.
+	 */
+	private static DLReader project(DLReader reader)
+	{
+		reader.setProjection("holder/part", "thing/pt", "inner");
+		return reader;
+	}
+
+	/**
+	 * Sets a reader to prefetch includes.
+	 */
+	private static DLReader prefetch(DLReader reader, ExecutorService executor)
+	{
+		reader.setIncludeExecutor(executor);
+		return reader;
+	}
+
+	/**
+	 * Writes a file as UTF-8.
+	 */
+	private static void write(Path file, String content) throws IOException
+	{
+		Files.write(file, content.getBytes(UTF_8));
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, boolean ok)
+	{
+		if (!ok)
+		{
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+	/**
+	 * A cache that notes whether the archetype library is cached compiled.
+	 */
+	private static final class Cache extends DLIncludeCache
+	{
+		@Override
+		protected void put(String key, Entry entry)
+		{
+			if (key.contains("library.dl") && entry.isArchetypesOnly())
+				libraryCompiled = true;
+			super.put(key, entry);
+		}
+	}
+
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.ForkJoinPool;
+
+import com.blackrook.commons.linkedlist.Queue;
+import com.blackrook.commons.linkedlist.Stack;
+
+/**
+ * Times reading a large, prototype-heavy source full of inherit clauses, and checks that every
+ * way of reading it gives the same tree.
+ * <p>
+ * The source has a number of base entities, and many more entities that inherit from them,
+ * each with nested structs that inherit from each other, an item that inherits from an entity
+ * (another type), and levels that inherit by number, including integers and equal doubles.
+ * A smaller source like it is first read by an event handler that looks for the struct to inherit
+ * from by comparing against every struct of its type, as the reader did before it had an index,
+ * and the reader's result must match it. The full source is then read with copy inheritance,
+ * with prototype inheritance, and in parallel, which must all be written the same.
+ * </p>
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLInheritBenchmark [entities] [bases]
+ * </pre>
+ * The defaults are {@value #DEFAULT_ENTITIES} entities and {@value #DEFAULT_BASES} bases.
+ * It exits with status 1 if any two reads differ.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLInheritBenchmark
+{
+	/** Default number of inheriting entities. */
+	private static final int DEFAULT_ENTITIES = 50000;
+	/** Default number of base entities. */
+	private static final int DEFAULT_BASES = 1000;
+	/** Number of entities in the source checked against comparing every struct. */
+	private static final int SCAN_ENTITIES = 3000;
+
+	public static void main(String[] args) throws IOException
+	{
+		int entities = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ENTITIES;
+		int bases = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_BASES;
+		boolean ok = true;
+
+		String small = source(Math.min(entities, SCAN_ENTITIES), Math.min(bases, SCAN_ENTITIES));
+		long time = System.nanoTime();
+		String scanned = write(scan(small));
+		time = System.nanoTime() - time;
+		System.out.printf("comparing every struct: %,d bytes in %d ms%n", small.length(), time / 1000000);
+		ok &= same("index", scanned, write(read(small, false, false)));
+
+		String source = source(entities, bases);
+		System.out.printf("source: %,d bytes, %,d entities, %,d bases%n", source.length(), entities, bases);
+		String copied = timed("copy inheritance", source, false, false);
+		ok &= same("prototype inheritance", copied, timed("prototype inheritance", source, true, false));
+		ok &= same("parallel copy inheritance", copied, timed("parallel copy inheritance", source, false, true));
+
+		if (!ok)
+			System.exit(1);
+	}
+
+	/**
+	 * Makes a source.
+	 */
+	private static String source(int entities, int bases)
+	{
+		StringBuilder sb = new StringBuilder(entities * 96);
+		sb.append("level 10000000000 { depth 1; } level 9007199254740993 { depth 2; } level 9007199254740992 { depth 3; }\n");
+		for (int i = 0; i < bases; i++)
+		{
+			sb.append("entity \"base").append(i).append("\" { hp ").append(i).append("; speed ").append(i * 0.5)
+				.append("; tags [\"a\", \"b").append(i).append("\"]; part { slot ").append(i).append("; } }\n");
+		}
+		for (int i = 0; i < entities; i++)
+		{
+			sb.append("entity \"e").append(i).append("\" : entity \"base").append(i % bases).append("\" { id ").append(i)
+				.append("; child \"c\" { a ").append(i).append("; } child \"d\" : child \"c\" { b 1; } }\n");
+			if (i % 10 == 0)
+				sb.append("item \"i").append(i).append("\" : entity \"e").append(i).append("\" { count 1; }\n");
+			if (i % 100 == 0)
+			{
+				sb.append("level ").append(i).append(" : level ").append(i % 200 == 0 ? "1e10" : "9007199254740993").append(" { }\n");
+				sb.append("level ").append(i + 1).append(" : level 9007199254740992 { }\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a source, and returns it written out, and prints how long reading took.
+	 */
+	private static String timed(String name, String source, boolean prototypes, boolean parallel) throws IOException
+	{
+		read(source, prototypes, parallel);
+		long time = System.nanoTime();
+		DLStruct struct = read(source, prototypes, parallel);
+		time = System.nanoTime() - time;
+		System.out.printf("%s: %d ms%n", name, time / 1000000);
+		return write(struct);
+	}
+
+	/**
+	 * Reads a source.
+	 */
+	private static DLStruct read(String source, boolean prototypes, boolean parallel)
+	{
+		DLReader reader = new DLReader();
+		reader.setPrototypeInheritance(prototypes);
+		if (parallel)
+			reader.setParallelPool(ForkJoinPool.commonPool());
+		return reader.read(source);
+	}
+
+	/**
+	 * Reads a source through {@link ScanBuilder}.
+	 */
+	private static DLStruct scan(String source)
+	{
+		DLStruct out = new DLStruct();
+		new DLReader().parse("scan", new ByteArrayInputStream(source.getBytes(Charset.forName("UTF-8"))), new ScanBuilder(out));
+		return out;
+	}
+
+	/**
+	 * Prints whether two written trees are the same.
+	 */
+	private static boolean same(String name, String expected, String actual)
+	{
+		boolean out = expected.equals(actual);
+		if (!out)
+			System.out.println(name + ": the tree is not the same.");
+		return out;
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Builds a struct, finding the struct to inherit from by comparing against
+	 * every struct of its type, and copying it.
+	 */
+	private static final class ScanBuilder implements DLEventHandler
+	{
+		private Stack<DLStruct> stack;
+
+		ScanBuilder(DLStruct root)
+		{
+			stack = new Stack<DLStruct>();
+			stack.push(root);
+		}
+
+		@Override
+		public void archetypeDecl(String name, String[] fields)
+		{
+			// Do nothing.
+		}
+
+		@Override
+		public void startStruct(String type, DLValue value)
+		{
+			DLStruct struct = stack.peek().putStruct(type);
+			if (value != null)
+				struct.set(value);
+			stack.push(struct);
+		}
+
+		@Override
+		public void inherit(String type, DLValue value)
+		{
+			DLStruct top = stack.pop();
+			DLStruct found = null;
+			Queue<DLStruct> structList = stack.peek().get(type);
+			if (structList != null) for (DLStruct dls : structList)
+				if (dls != top && dls.getValue() != null && dls.getValue().equals(value))
+					found = dls;
+			stack.push(top);
+
+			if (found == null)
+				throw new DLParseException("Can't find "+type+" "+value+".");
+			DLValue v = top.getValue();
+			found.copyInto(top);
+			top.set(v);
+		}
+
+		@Override
+		public void field(String name, DLValue value)
+		{
+			stack.peek().put(name, value);
+		}
+
+		@Override
+		public void endStruct()
+		{
+			stack.pop();
+		}
+	}
+
+}
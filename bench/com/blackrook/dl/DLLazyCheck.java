@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.blackrook.commons.ObjectPair;
+import com.blackrook.commons.linkedlist.Queue;
+
+/**
+ * Checks that structs read lazily act like structs read all at once: they are written the same,
+ * they iterate over the same structs, archetypes declared around a deferred body mean the same,
+ * and a body that can't be read keeps failing.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLLazyCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLLazyCheck
+{
+	/** Sources read both ways. */
+	private static final String[] SOURCES = {
+		"p { q { a 1; } q { a 2; } w 3; }",
+		".pt(x,y,z); ent \"e1\" { inner { pt(1,2,3); } } .pt(z,y,x); ent \"e2\" { pt(4,5,6); }",
+		"a { pt(1,2); } .pt(x,y);",
+		"e \"base\" { q { a 1; } } e \"x\" : e \"base\" { w 3; }",
+	};
+
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		for (String source : SOURCES)
+		{
+			for (boolean prototypes : new boolean[]{false, true})
+			{
+				String name = source + (prototypes ? " (prototypes)" : "");
+				String eager = read(source, false, prototypes);
+				String lazy = read(source, true, prototypes);
+				check(name + ": lazy read the same", eager.equals(lazy));
+			}
+		}
+
+		// a body that can't be read fails on every access.
+		DLReader reader = new DLReader();
+		reader.setLazy(true);
+		DLStruct bad = reader.read("a { x 1; y ; z 3; }").getStructs("a").head();
+		int thrown = 0;
+		for (int i = 0; i < 3; i++)
+		{
+			try {
+				bad.getAllFields();
+			} catch (DLParseException e) {
+				thrown++;
+			}
+		}
+		check("bad body fails every time", thrown == 3);
+		check("bad body is not loaded", !bad.isLoaded());
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Reads a source, and returns it written out, followed by what iterating over
+	 * its structs and their structs finds.
+	 */
+	private static String read(String source, boolean lazy, boolean prototypes) throws IOException
+	{
+		DLReader reader = new DLReader();
+		reader.setLazy(lazy);
+		reader.setPrototypeInheritance(prototypes);
+		try {
+			DLStruct root = reader.read(source);
+			StringBuilder sb = new StringBuilder();
+			iterate(root, sb);
+			return write(root) + sb;
+		} catch (DLParseException e) {
+			return "DLParseException";
+		}
+	}
+
+	/**
+	 * Lists a struct's types and how many structs each has, iterating over them, recursively.
+	 */
+	private static void iterate(DLStruct struct, StringBuilder sb)
+	{
+		sb.append('{');
+		for (ObjectPair<String, Queue<DLStruct>> hp : struct)
+		{
+			sb.append(hp.getKey()).append(':').append(hp.getValue().size()).append(' ');
+			for (DLStruct s : hp.getValue())
+				iterate(s, sb);
+		}
+		sb.append('}');
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, boolean ok)
+	{
+		if (!ok)
+		{
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks that the lexer reads sources the same way from characters and from UTF-8 bytes,
+ * memory-mapped or not: non-ASCII whitespace, identifiers and strings, characters outside
+ * the Basic Multilingual Plane, byte order marks, line endings, comments and odd numbers
+ * must give the same tree, or fail in both.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLLexerCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLLexerCheck
+{
+	/** UTF-8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Sources to read every way. */
+	private static final String[] SOURCES = {
+		"a 1;",
+		"a\u00A01;",
+		"a\u2003 3;",
+		"a\u3000b 2;",
+		"caf\u00E9 1; \u00B5x 2;",
+		"\u0416\u0416 \" \";",
+		"a\uD83D\uDE00 1;",
+		"\uD83D\uDE00 1;",
+		"s \"\uD83D\uDE00 \u00E9 \u4E2D\";",
+		"\uFEFFa 1;",
+		"a 1;\r\nb 2;\rc 3;\n",
+		"// caf\u00E9\na /* \u00B5 */ 1;",
+		"a -.5; b .5; c 1e3; d -0; e 1E-3;",
+		"a 1e;",
+		"a \"unterminated;",
+		"a { b 1; ",
+		"a \u00A7 1;",
+		"\u00A0\u00A0",
+	};
+
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		DLReader reader = new DLReader();
+		Path file = Files.createTempFile("dlcheck", ".dl");
+		try {
+			for (String source : SOURCES)
+			{
+				String name = escape(source);
+				String expected = read(reader, source, null, 0);
+				check(name + ": char array", expected, read(reader, source, null, 1));
+				check(name + ": UTF-8 bytes", expected, read(reader, source, null, 2));
+				check(name + ": direct UTF-8 bytes", expected, read(reader, source, null, 3));
+				check(name + ": mapped file", expected, read(reader, source, file, 4));
+			}
+
+			// malformed bytes are read as replacement characters, as decoding them would.
+			byte[] bad = {'a', ' ', '"', (byte)0xC3, '"', ';', ' ', 'b', ' ', (byte)0xFF, ';'};
+			String decoded = new String(bad, UTF_8);
+			check("malformed bytes", read(reader, decoded, null, 0), outcome(reader, ByteBuffer.wrap(bad)));
+		} finally {
+			Files.delete(file);
+		}
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Reads a source one way, and returns it written out, or "error" if it can't be read.
+	 * @param how 0 for a String, 1 for a char array, 2 for a heap byte buffer,
+	 * 		3 for a direct byte buffer, 4 for a mapped file.
+	 */
+	private static String read(DLReader reader, String source, Path file, int how) throws IOException
+	{
+		byte[] bytes = source.getBytes(UTF_8);
+		try {
+			switch (how)
+			{
+				case 0:
+					return write(reader.read(source));
+				case 1:
+					return write(reader.read(source.toCharArray(), 0, source.length()));
+				case 2:
+					return outcome(reader, ByteBuffer.wrap(bytes));
+				case 3:
+				{
+					ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+					direct.put(bytes).flip();
+					return outcome(reader, direct);
+				}
+				default:
+					Files.write(file, bytes);
+					return write(reader.read(file));
+			}
+		} catch (DLParseException e) {
+			return "error";
+		}
+	}
+
+	/**
+	 * Reads UTF-8 bytes, and returns them written out, or "error" if they can't be read.
+	 */
+	private static String outcome(DLReader reader, ByteBuffer bytes) throws IOException
+	{
+		try {
+			return write(reader.read(bytes, UTF_8));
+		} catch (DLParseException e) {
+			return "error";
+		}
+	}
+
+	/**
+	 * Writes non-ASCII and control characters as escapes, for printing.
+	 */
+	private static String escape(String s)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c < 0x20 || c > 0x7e)
+				sb.append(String.format("\\u%04x", (int)c));
+			else
+				sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, String expected, String actual)
+	{
+		if (!expected.equals(actual))
+		{
+			System.out.println("FAILED: " + name + " read differently.");
+			failures++;
+		}
+	}
+
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Checks that a {@link DLMessageReader} reads what {@link DLReader} does, message after message,
+ * and that it doesn't keep what one message needed around for the rest: its owned symbol table
+ * stays bounded, buffers grown for a large message are given up, and byte sources are let go.
+ * The kept state is looked at through reflection.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLMessageReaderCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLMessageReaderCheck
+{
+	/** Messages read with new names each. */
+	private static final int MESSAGES = 100000;
+	/** Elements in the large message's arrays. */
+	private static final int LARGE = 200000;
+
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		DLReader reader = new DLReader();
+		DLMessageReader messages = reader.createMessageReader();
+		Charset utf8 = Charset.forName("UTF-8");
+
+		// same as the reader, from characters and bytes.
+		boolean same = true;
+		for (int i = 0; i < 1000; i++)
+		{
+			String source = "f" + i + " " + i + "; t \"u\" { x [1, 2.5]; w [\"s" + i + "\"]; y 9007199254740993; } t \"v\" : t \"u\" { z 1; }";
+			String expected = write(reader.read(source));
+			same &= expected.equals(write(messages.reset(source).read()));
+			same &= expected.equals(write(messages.reset(ByteBuffer.wrap(source.getBytes(utf8))).read()));
+		}
+		check("read the same as DLReader", same);
+
+		// the owned symbol table stays bounded.
+		for (int i = 0; i < MESSAGES; i++)
+			messages.reset("f" + i + " 1; t" + i + " { x 2; }").read();
+		int symbols = ((DLSymbolTable)get(messages, "symbols")).size();
+		check("owned symbol table bounded (" + symbols + " names)", symbols <= DLMessageReader.MAX_OWNED_SYMBOLS + 2);
+
+		// buffers grown for a large message are given up after it.
+		StringBuilder sb = new StringBuilder("n [");
+		for (int i = 0; i < LARGE; i++)
+			sb.append(i > 0 ? ", " : "").append(i + 0.5);
+		sb.append("]; s [");
+		for (int i = 0; i < LARGE; i++)
+			sb.append(i > 0 ? ", " : "").append("\"s").append(i).append('"');
+		sb.append("];");
+		String large = sb.toString();
+		DLStruct struct = messages.reset(large).read();
+		check("large message read", struct.getValue("n").getDoubleArray().length == LARGE && struct.getValue("s").getStringArray().length == LARGE);
+		messages.reset("a 1;").read();
+		Object buffer = get(get(messages, "parser"), "arrayBuffer");
+		check("number buffer trimmed", ((double[])get(buffer, "numbers")).length <= DLArrayBuffer.MAX_KEPT_CAPACITY);
+		check("string buffer trimmed", ((String[])get(buffer, "strings")).length <= DLArrayBuffer.MAX_KEPT_CAPACITY);
+		check("text buffer trimmed", ((char[])get(messages, "text")).length < large.length());
+
+		// byte sources are let go of after they are read, even if they fail.
+		messages.reset(ByteBuffer.wrap("a 1;".getBytes(utf8))).read();
+		check("byte source let go", get(get(messages, "input"), "bytes") == null);
+		try {
+			messages.reset(ByteBuffer.wrap("a { 1;".getBytes(utf8))).read();
+			check("bad source fails", false);
+		} catch (DLParseException e) {
+			check("failed byte source let go", get(get(messages, "input"), "bytes") == null);
+		}
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Gets a private field of an object.
+	 */
+	private static Object get(Object object, String name) throws ReflectiveOperationException
+	{
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		return field.get(object);
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, boolean ok)
+	{
+		if (!ok)
+		{
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks that {@link DLLexer#getNumber()} agrees bit for bit with {@link Double#parseDouble(String)},
+ * on character and UTF-8 byte inputs, and times the two against each other.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLNumberBenchmark [count] [seed]
+ * </pre>
+ * It exits with status 1 if any literal converts differently.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLNumberBenchmark
+{
+	/** Literals that sit on the edges of the fast path or of the double range. */
+	private static final String[] EDGE_CASES = {
+		"0", "0.0", "00012", "1.", "0.1", "0.2", "0.3", "123.456e-7",
+		// 2^53 and its neighbors.
+		"9007199254740991", "9007199254740992", "9007199254740993", "9007199254740994", "9007199254740995",
+		"9007199254740993e0", "9007199254740993.0", "900719925474099.3e1",
+		// the last exact power of ten, and the first one past it.
+		"1e22", "1E+22", "1e-22", "1e23", "1e-23", "8.5e-23", "12345e18", "12345e19",
+		// subnormals and underflow.
+		"4.9e-324", "2.4703282292062327e-324", "2.4703282292062328e-324", "1e-400",
+		"2.2250738585072014e-308", "2.2250738585072011e-308", "2.2250738585072012e-308",
+		// the top of the range and overflow.
+		"1.7976931348623157e308", "1.7976931348623158e308", "1.8e308", "1e309", "1e99999",
+		// more digits than fit in a long.
+		"1234567890123456789012345", "0.1234567890123456789012345", "1234567890123.456789012345e-10",
+		"99999999999999999999999999", "100000000000000000000000000", "0.0000000000000000000000001",
+		"18446744073709551615", "18446744073709551616", "9223372036854775807", "9223372036854775808",
+	};
+
+	public static void main(String[] args)
+	{
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 4000000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0L;
+		
+		String[] literals = generate(count, seed);
+		StringBuilder sb = new StringBuilder();
+		for (String literal : literals)
+			sb.append(literal).append(' ');
+		char[] chars = sb.toString().toCharArray();
+		ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+
+		int mismatches = 0;
+		mismatches += check("char", new DLLexer.Input("bench", chars, 0, chars.length), literals);
+		mismatches += check("UTF-8", new DLLexer.Input("bench", bytes, 0, bytes.remaining()), literals);
+		System.out.println(literals.length + " literals, " + mismatches + " mismatches.");
+		
+		for (int i = 0; i < 3; i++)
+		{
+			long lexer = time(new DLLexer.Input("bench", chars, 0, chars.length), false);
+			long parse = time(new DLLexer.Input("bench", chars, 0, chars.length), true);
+			System.out.printf("getNumber(): %d ms, Double.parseDouble(): %d ms%n", lexer / 1000000, parse / 1000000);
+		}
+		
+		if (mismatches > 0)
+			System.exit(1);
+	}
+	
+	/**
+	 * Makes the edge cases plus random literals, up to a count.
+	 */
+	private static String[] generate(int count, long seed)
+	{
+		Random random = new Random(seed);
+		String[] out = new String[Math.max(count, EDGE_CASES.length)];
+		System.arraycopy(EDGE_CASES, 0, out, 0, EDGE_CASES.length);
+		StringBuilder sb = new StringBuilder();
+		for (int i = EDGE_CASES.length; i < out.length; i++)
+		{
+			switch (random.nextInt(4))
+			{
+				// the shortest form of a random double.
+				case 0:
+					out[i] = Double.toString(Math.abs(Double.longBitsToDouble(random.nextLong() & 0x7fefffffffffffffL)));
+					break;
+				// a random decimal with a random exponent.
+				default:
+				{
+					sb.setLength(0);
+					int digits = 1 + random.nextInt(random.nextBoolean() ? 17 : 25);
+					int point = random.nextInt(digits + 1);
+					for (int d = 0; d < digits; d++)
+					{
+						if (d == point && d > 0)
+							sb.append('.');
+						sb.append((char)('0' + random.nextInt(10)));
+					}
+					if (random.nextBoolean())
+						sb.append('e').append(random.nextInt(60) - 30);
+					out[i] = sb.toString();
+				}
+					break;
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Lexes every literal and compares it against {@link Double#parseDouble(String)}.
+	 * @return the number of mismatches.
+	 */
+	private static int check(String name, DLLexer.Input input, String[] literals)
+	{
+		DLLexer lexer = new DLLexer(null, input);
+		int out = 0;
+		for (String literal : literals)
+		{
+			lexer.nextToken();
+			double expected = Double.parseDouble(literal);
+			double actual = lexer.getNumber();
+			if (Double.doubleToRawLongBits(expected) != Double.doubleToRawLongBits(actual))
+			{
+				if (out++ < 20)
+					System.out.println(name + ": " + literal + " read as " + actual + ", expected " + expected);
+			}
+		}
+		return out;
+	}
+	
+	/**
+	 * Times converting every number token in an input.
+	 * @param parse if true, use {@link Double#parseDouble(String)} on the lexemes instead.
+	 * @return the time in nanoseconds.
+	 */
+	private static long time(DLLexer.Input input, boolean parse)
+	{
+		DLLexer lexer = new DLLexer(null, input);
+		double sum = 0.0;
+		long time = System.nanoTime();
+		for (lexer.nextToken(); !lexer.isEnd(); lexer.nextToken())
+			sum += parse ? Double.parseDouble(lexer.getLexeme()) : lexer.getNumber();
+		time = System.nanoTime() - time;
+		if (sum == 42.0)
+			System.out.println();
+		return time;
+	}
+	
+}
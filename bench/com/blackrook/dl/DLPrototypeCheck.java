@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.blackrook.commons.linkedlist.Queue;
+
+/**
+ * Checks that structs read with prototype inheritance act like structs read with copy inheritance:
+ * they are written the same, and changing an inheriting struct, its fields, or its structs
+ * does not change the struct that it inherits from. It also reads the inherited structs of
+ * many structs from several threads at once, and checks that they all get the same lists.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLPrototypeCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLPrototypeCheck
+{
+	/** The source read in both modes. */
+	private static final String SOURCE =
+		"e \"base\" { hp [10.5, 20]; name [\"a\", \"b\"]; n 3; item { q 1; sub { z 1; } } item { q 2; } } " +
+		"e \"x\" : e \"base\" { y 2; } " +
+		"e \"f\" : e \"x\" { w 3; }";
+
+	/** Threads reading at once. */
+	private static final int THREADS = 8;
+	/** Inheriting structs read at once. */
+	private static final int STRUCTS = 20000;
+
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		DLStruct copied = read(false);
+		DLStruct prototyped = read(true);
+		check("written the same", write(copied).equals(write(prototyped)));
+
+		for (DLStruct root : new DLStruct[]{copied, prototyped})
+		{
+			String mode = root == prototyped ? " (prototypes)" : " (copies)";
+			String base = write(find(root, "base"));
+			DLStruct x = find(root, "x");
+
+			((double[])x.getValue("hp").getVal())[0] = 99;
+			((String[])x.getValue("name").getVal())[0] = "z";
+			x.append("n", 4);
+			x.getStructs("item").head().put("q", 99);
+			x.getStructs("item").head().getStructs("sub").head().put("z", 98);
+			x.putStruct("item").put("q", 3);
+
+			check("base not changed" + mode, write(find(root, "base")).equals(base));
+			check("appended" + mode, x.getValue("n").getDoubleArray().length == 2);
+			check("struct added" + mode, x.getStructs("item").size() == 3);
+		}
+
+		checkThreads();
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Reads the inherited structs of many structs from several threads at once.
+	 */
+	private static void checkThreads() throws IOException
+	{
+		StringBuilder sb = new StringBuilder("e \"base\" { item { q 1; } item { q 2; } }");
+		for (int i = 0; i < STRUCTS; i++)
+			sb.append(" e \"e").append(i).append("\" : e \"base\" { }");
+		DLReader reader = new DLReader();
+		reader.setPrototypeInheritance(true);
+		final DLStruct root = reader.read(sb.toString());
+		final Object[][] seen = new Object[THREADS][STRUCTS + 1];
+		final AtomicInteger errors = new AtomicInteger(0);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[THREADS];
+		for (int t = 0; t < THREADS; t++)
+		{
+			final int n = t;
+			threads[t] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try {
+						start.await();
+						int i = 0;
+						for (DLStruct e : root.getStructs("e"))
+						{
+							Queue<DLStruct> items = e.getStructs("item");
+							if (items.size() != 2)
+								errors.incrementAndGet();
+							seen[n][i++] = items;
+						}
+					} catch (Throwable e) {
+						errors.incrementAndGet();
+					}
+				}
+			});
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread t : threads)
+		{
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		boolean same = true;
+		for (int t = 1; t < THREADS; t++)
+			for (int i = 0; i <= STRUCTS; i++)
+				same &= seen[t][i] == seen[0][i];
+		check("read from threads without errors", errors.get() == 0);
+		check("every thread got the same lists", same);
+		String before = write(root);
+		check("reading twice gives the same lists", root.getStructs("e").tail().getStructs("item") == seen[0][STRUCTS]);
+		check("written the same after reading", write(root).equals(before));
+	}
+
+	/**
+	 * Returns the "e" struct with a value.
+	 */
+	private static DLStruct find(DLStruct root, String value)
+	{
+		for (DLStruct e : root.getStructs("e"))
+			if (e.getString().equals(value))
+				return e;
+		return null;
+	}
+
+	/**
+	 * Reads the source, with or without prototypes.
+	 */
+	private static DLStruct read(boolean prototypes)
+	{
+		DLReader reader = new DLReader();
+		reader.setPrototypeInheritance(prototypes);
+		return reader.read(SOURCE);
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, boolean ok)
+	{
+		if (!ok)
+		{
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that every way of reading a source gives the same tree: from a String, a char array,
+ * UTF-8 bytes, a stream, and a memory-mapped file; in parallel, lazily, with prototype inheritance,
+ * and with a symbol table; through a message reader; and built from the events of
+ * {@link DLReader#parse(Path, DLEventHandler)} and of a {@link DLStreamReader}.
+ * <p>
+ * The sources are made at random from a seed, and have archetypes that are declared again
+ * partway through, inherit clauses, nested structs, integers too large for a double,
+ * arrays of each kind, escaped and non-ASCII strings, and comments.
+ * Reading the written tree again must give the same tree, too, so strings have no quotes
+ * or backslashes in them, which DLWriter does not escape.
+ * </p>
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLReadModesCheck [statements] [seed]
+ * </pre>
+ * The defaults are {@value #DEFAULT_STATEMENTS} statements and seed 1.
+ * It exits with status 1 if any two reads differ.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLReadModesCheck
+{
+	/** Default number of top-level statements. */
+	private static final int DEFAULT_STATEMENTS = 20000;
+	/** UTF-8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		int statements = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_STATEMENTS;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+		String source = source(statements, new Random(seed));
+		byte[] bytes = source.getBytes(UTF_8);
+		System.out.printf("source: %,d bytes%n", bytes.length);
+
+		String expected = write(new DLReader().read(source));
+
+		DLReader reader = new DLReader();
+		check("char array", expected, write(reader.read(source.toCharArray(), 0, source.length())));
+		check("UTF-8 bytes", expected, write(reader.read(ByteBuffer.wrap(bytes), UTF_8)));
+		check("stream", expected, write(reader.read("stream", new ByteArrayInputStream(bytes), UTF_8)));
+		Path file = Files.createTempFile("dlcheck", ".dl");
+		try {
+			Files.write(file, bytes);
+			check("mapped file", expected, write(reader.read(file)));
+			// these read files as UTF-8, but streams in the platform's charset.
+			DLStruct parsed = new DLStruct();
+			reader.parse(file, new DLStructBuilder(parsed));
+			check("events", expected, write(parsed));
+			check("stream reader", expected, write(stream(reader.createStreamReader(file))));
+		} finally {
+			Files.delete(file);
+		}
+		check("read again", expected, write(reader.read(expected)));
+
+		DLReader parallel = new DLReader();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		parallel.setParallelPool(pool);
+		check("parallel", expected, write(parallel.read(source)));
+		pool.shutdown();
+
+		DLReader lazy = new DLReader();
+		lazy.setLazy(true);
+		check("lazy", expected, write(lazy.read(source)));
+
+		DLReader prototypes = new DLReader();
+		prototypes.setPrototypeInheritance(true);
+		check("prototypes", expected, write(prototypes.read(source)));
+
+		DLReader symbols = new DLReader();
+		symbols.setSymbolTable(new DLSymbolTable());
+		symbols.read(source);
+		check("symbol table", expected, write(symbols.read(source)));
+
+		DLMessageReader messages = reader.createMessageReader();
+		check("message reader", expected, write(messages.reset(source).read()));
+		check("message reader bytes", expected, write(messages.reset(ByteBuffer.wrap(bytes)).read()));
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Makes a source.
+	 */
+	private static String source(int statements, Random random)
+	{
+		StringBuilder sb = new StringBuilder(statements * 64);
+		sb.append("// generated\n.pt(x, y, z);\n");
+		int last = -1;
+		for (int i = 0; i < statements; i++)
+		{
+			switch (random.nextInt(12))
+			{
+				case 0:
+					sb.append(random.nextBoolean() ? ".pt(z, y, x);\n" : ".pt(x, y, z);\n");
+					break;
+				case 1:
+					if (last >= 0)
+					{
+						sb.append("ent \"e").append(i).append("\" : ent \"e").append(last).append("\" { extra ").append(i).append("; }\n");
+						last = i;
+						break;
+					}
+					// fall through
+				case 2:
+					sb.append("pt (").append(i).append(", ").append(-i * 0.25).append(", \"p").append(i).append("\");\n");
+					break;
+				case 3:
+					sb.append("top").append(i % 7).append(' ').append(random.nextLong()).append(";\n");
+					break;
+				case 4:
+					sb.append("/* block\n comment */ big [9007199254740993, -9223372036854775808, ").append(i).append("];\n");
+					break;
+				case 5:
+					sb.append("text \"tab\\there \\u00e9t\u00e9 \u00b5 ").append(i).append("\";\n");
+					break;
+				case 6:
+					sb.append("num \"n").append(i).append("\" { d [1.5, -2e-3, 6.02E23, 0.1]; f ").append(random.nextDouble()).append("; s [\"a\", \"\", \"c").append(i).append("\"]; }\n");
+					break;
+				default:
+					last = i;
+					sb.append("ent \"e").append(i).append("\" { v ").append(i).append("; s \"x").append(i)
+						.append("\"; inner { pt (1, 2, 3); q [1, 2, ").append(i).append("]; deep { w 1; } } }\n");
+					break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Builds a struct from a stream reader's events.
+	 */
+	private static DLStruct stream(DLStreamReader in)
+	{
+		DLStruct out = new DLStruct();
+		DLStructBuilder builder = new DLStructBuilder(out);
+		while (in.hasNext())
+		{
+			switch (in.next())
+			{
+				case DLStreamReader.START_STRUCT:
+					builder.startStruct(in.getName(), in.getValue());
+					break;
+				case DLStreamReader.FIELD:
+					builder.field(in.getName(), in.getValue());
+					break;
+				case DLStreamReader.INHERIT:
+					builder.inherit(in.getName(), in.getValue());
+					break;
+				case DLStreamReader.ARCHETYPE_DECL:
+					builder.archetypeDecl(in.getName(), in.getArchetypeFields());
+					break;
+				case DLStreamReader.END_STRUCT:
+					builder.endStruct();
+					break;
+				default:
+					break;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, String expected, String actual)
+	{
+		if (!expected.equals(actual))
+		{
+			System.out.println("FAILED: " + name + " gave a different tree.");
+			failures++;
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import com.blackrook.commons.hash.HashMap;
+
+/**
+ * Checks that structs keep their fields by shape no matter what was read before them:
+ * after more different first fields than a shape keeps children, and after more shapes
+ * than the tree keeps, a new struct still gets a shape, shares it with structs like it,
+ * and keeps its fields in order. Also checks that structs with too many fields,
+ * removed fields, and the deprecated field table keep their values.
+ * Shapes are looked at through reflection.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLShapeCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLShapeCheck
+{
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws Exception
+	{
+		DLReader reader = new DLReader();
+
+		// more first fields than a shape keeps children.
+		for (int i = 0; i < DLShape.MAX_CHILDREN + 6; i++)
+			reader.read("x { f" + i + " 1; }");
+		checkShaped("after many first fields", reader);
+
+		// more shapes than the tree keeps.
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < DLShape.MAX_SHAPES + 1000; i++)
+			sb.append("x { g").append(i).append(" 1; h 2; }\n");
+		reader.read(sb.toString());
+		checkShaped("after the tree started over", reader);
+
+		// too many fields for a shape.
+		sb.setLength(0);
+		sb.append("s { ");
+		for (int i = 0; i < DLShape.MAX_FIELDS * 2; i++)
+			sb.append("f").append(i).append(' ').append(i).append("; ");
+		sb.append('}');
+		DLStruct wide = reader.read(sb.toString()).get("s").head();
+		check("wide struct keeps a field table", shape(wide) == null);
+		boolean values = wide.getAllFields().length == DLShape.MAX_FIELDS * 2;
+		for (int i = 0; i < DLShape.MAX_FIELDS * 2; i++)
+			values &= wide.getInt("f" + i) == i;
+		check("wide struct keeps its values", values);
+
+		// removing a field.
+		DLStruct removed = reader.read("s { a 1; b 2; c 3; }").get("s").head();
+		removed.put("b", (String)null);
+		check("removed field gone", removed.getValue("b") == null && removed.getAllFields().length == 2);
+		check("other fields kept", removed.getInt("a") == 1 && removed.getInt("c") == 3);
+
+		// the deprecated field table is the struct's own.
+		Legacy legacy = new Legacy();
+		legacy.put("a", 1);
+		legacy.put("b", "two");
+		HashMap<String,DLValue> table = legacy.table();
+		check("field table has fields", table.get("a") != null && "two".equals(table.get("b").getString()));
+		table.put("c", new DLValue(3.5));
+		check("field table changes struct", legacy.getDouble("c") == 3.5 && legacy.getAllFields().length == 3);
+		legacy.put("d", 4);
+		check("struct changes field table", table.get("d") != null);
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Checks that new structs get shapes, share them, and keep their fields in order.
+	 */
+	private static void checkShaped(String name, DLReader reader) throws ReflectiveOperationException
+	{
+		DLStruct root = reader.read("s { zy 1; zz 2; } s { zy 3; zz 4; }");
+		DLStruct first = root.get("s").head();
+		DLStruct second = root.get("s").tail();
+		check(name + ": struct has a shape", shape(first) != null);
+		check(name + ": like structs share a shape", shape(first) == shape(second));
+		check(name + ": fields in order", Arrays.equals(first.getAllFields(), new String[]{"zy", "zz"}));
+		check(name + ": values kept", second.getInt("zy") == 3 && second.getInt("zz") == 4);
+	}
+
+	/**
+	 * Returns a struct's shape.
+	 */
+	private static Object shape(DLStruct struct) throws ReflectiveOperationException
+	{
+		Field field = DLStruct.class.getDeclaredField("shape");
+		field.setAccessible(true);
+		return field.get(struct);
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, boolean ok)
+	{
+		if (!ok)
+		{
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+	/**
+	 * A subclass that uses the field table as subclasses did before.
+	 */
+	@SuppressWarnings("deprecation")
+	private static final class Legacy extends DLStruct
+	{
+		HashMap<String,DLValue> table()
+		{
+			return getFieldTable();
+		}
+	}
+
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Checks how {@link DLValue} keeps, returns and compares values: that integers stay exact
+ * after any read, that {@link DLValue#getVal()} only changes arrays of doubles and strings,
+ * and that equal numbers are equal (and find each other through inherit clauses)
+ * whether they were read as integers or doubles.
+ * <p>
+ * Run it with the library's classes on the classpath:
+ * <pre>
+ * javac -cp bin -d bin-bench bench/com/blackrook/dl/*.java
+ * java -cp bin:bin-bench com.blackrook.dl.DLValueCheck
+ * </pre>
+ * It exits with status 1 if any check fails.
+ * </p>
+ * @author Matthew Tropiano
+ */
+public final class DLValueCheck
+{
+	/** Number of failed checks. */
+	private static int failures = 0;
+
+	public static void main(String[] args) throws IOException
+	{
+		DLReader reader = new DLReader();
+
+		// integers stay exact after every read, including getVal().
+		DLStruct s = reader.read("id 9007199254740993; ids [1, 9007199254740993]; small [1, 2];");
+		String before = write(s);
+		for (String field : new String[]{"id", "ids", "small"})
+		{
+			DLValue v = s.getValue(field);
+			v.getVal();
+			v.getDouble();
+			v.getString();
+			v.getDoubleArray();
+			v.getStringArray();
+			v.toString();
+		}
+		check("getLong() after reads", s.getValue("id").getLong() == 9007199254740993L);
+		check("getLongArray() after reads", s.getValue("ids").getLongArray()[1] == 9007199254740993L);
+		check("written the same after reads", write(s).equals(before));
+
+		// getVal() hands out copies of single values and integers, and the arrays of the others.
+		s = reader.read("n 1.5; i 3; str \"a\"; ia [1, 2]; da [1.5, 2]; sa [\"a\", \"b\"];");
+		((double[])s.getValue("n").getVal())[0] = 9;
+		((double[])s.getValue("i").getVal())[0] = 9;
+		((String[])s.getValue("str").getVal())[0] = "z";
+		((double[])s.getValue("ia").getVal())[0] = 9;
+		((double[])s.getValue("da").getVal())[0] = 9;
+		((String[])s.getValue("sa").getVal())[0] = "z";
+		check("single number not changed", s.getValue("n").getDouble() == 1.5);
+		check("single integer not changed", s.getValue("i").getLong() == 3);
+		check("single string not changed", s.getValue("str").getString().equals("a"));
+		check("integer array not changed", s.getValue("ia").getLongArray()[0] == 1);
+		check("double array changed", s.getValue("da").getDoubleArray()[0] == 9);
+		check("string array changed", s.getValue("sa").getStringArray()[0].equals("z"));
+
+		// equal numbers are equal however they are kept, and unequal ones are not.
+		s = reader.read("a 10000000000; b 1e10; c 9007199254740993; d 9007199254740992; e [1, 10000000000]; f [1, 1e10]; g 10; h \"10\";");
+		checkEqual(s, "a", "b", true);
+		checkEqual(s, "c", "d", false);
+		checkEqual(s, "e", "f", true);
+		checkEqual(s, "g", "h", true);
+
+		// inherit clauses find equal numbers however they are kept.
+		checkInherit("x 10000000000 { f 1; } y : x 1e10 { }");
+		checkInherit("x 1e10 { f 1; } y : x 10000000000 { }");
+		checkInherit("x 10 { f 1; } y : x \"10\" { }");
+		checkInherit("x 9007199254740993 { f 1; } x 9007199254740992 { f 2; } y : x 9007199254740993 { }");
+
+		if (failures > 0)
+		{
+			System.out.println(failures + " checks failed.");
+			System.exit(1);
+		}
+		System.out.println("All checks passed.");
+	}
+
+	/**
+	 * Checks that two fields' values are equal, with equal hash codes, or not.
+	 */
+	private static void checkEqual(DLStruct s, String a, String b, boolean equal)
+	{
+		DLValue va = s.getValue(a);
+		DLValue vb = s.getValue(b);
+		check(a + (equal ? " equals " : " does not equal ") + b, va.equals(vb) == equal && vb.equals(va) == equal);
+		if (equal)
+			check(a + " hashes as " + b, va.hashCode() == vb.hashCode());
+	}
+
+	/**
+	 * Checks that a source, in copy and prototype mode, gives "y" the field "f" of 1.
+	 */
+	private static void checkInherit(String source)
+	{
+		for (boolean prototypes : new boolean[]{false, true})
+		{
+			DLReader reader = new DLReader();
+			reader.setPrototypeInheritance(prototypes);
+			String name = source + (prototypes ? " (prototypes)" : "");
+			try {
+				DLStruct y = reader.read(source).get("y").head();
+				check(name, y.getValue("f").getInt() == 1);
+			} catch (DLParseException e) {
+				check(name + ": " + e.getMessage(), false);
+			}
+		}
+	}
+
+	/**
+	 * Writes a struct as DLWriter does.
+	 */
+	private static String write(DLStruct s) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DLWriter.write(s, out);
+		return out.toString("UTF-8");
+	}
+
+	/**
+	 * Prints a failed check.
+	 */
+	private static void check(String name, boolean ok)
+	{
+		if (!ok)
+		{
+			System.out.println("FAILED: " + name);
+			failures++;
+		}
+	}
+
+}
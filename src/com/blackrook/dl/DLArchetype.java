@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+/**
+ * A compiled archetype: its field names in slot order, plus the {@link DLShape}s
+ * of structs that have its first fields set, so that structs made from it share them.
+ * <p>
+ * This is never changed after it is made, so it can be shared between parses and threads.
+ * Redeclaring an archetype makes a new one.
+ * </p>
+ * @author Matthew Tropiano
+ */
+final class DLArchetype
+{
+	/** The archetype (structure) name. */
+	final String name;
+	/** The field names, in slot order. */
+	final String[] fields;
+	/** 
+	 * The shapes with the first fields, by field count, or null if they can't be used
+	 * (a field name is repeated, or the shapes would be too large). 
+	 */
+	final DLShape[] shapes;
+	
+	/**
+	 * Compiles an archetype.
+	 * @param name the archetype name.
+	 * @param fields the field names, in declaration order. Not copied.
+	 */
+	DLArchetype(String name, String[] fields)
+	{
+		this.name = name;
+		this.fields = fields;
+		
+		DLShape[] shapes = new DLShape[fields.length + 1];
+		shapes[0] = DLShape.EMPTY;
+		for (int i = 0; i < fields.length; i++)
+		{
+			if (shapes[i].indexOf(fields[i]) >= 0 || (shapes[i + 1] = shapes[i].with(fields[i])) == null)
+			{
+				shapes = null;
+				break;
+			}
+		}
+		this.shapes = shapes;
+	}
+	
+}
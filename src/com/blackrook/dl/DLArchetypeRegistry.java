@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of archetypes that can be shared between {@link DLReader}s and reads, 
+ * so that sources can use archetypes without declaring them or including a file that does.
+ * <p>
+ * Archetypes are declared with {@link #declare(String, String...)}, or by reading a source 
+ * that declares them with a reader that uses this registry (see {@link DLReader#setArchetypeRegistry(DLArchetypeRegistry)}).
+ * Archetypes declared in a source are used in that source before any in this registry with the same name,
+ * and are added to this registry as they are read, replacing any with the same name.
+ * </p>
+ * <p>
+ * Each archetype is compiled once when it is declared: its fields are laid out in slots
+ * that are copied straight into each struct that uses it, and every such struct shares one field layout.
+ * </p>
+ * <p>
+ * This is safe to share between threads. A read may not see archetypes declared or removed
+ * while it is running, so sources read at the same time, such as by {@link DLReader#readAll(java.util.Collection)},
+ * should not use each other's declarations.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ */
+public class DLArchetypeRegistry
+{
+	/** The compiled archetypes, by name. */
+	private final ConcurrentHashMap<String, DLArchetype> archetypes;
+	
+	/**
+	 * Creates a new, empty registry.
+	 */
+	public DLArchetypeRegistry()
+	{
+		archetypes = new ConcurrentHashMap<String, DLArchetype>();
+	}
+	
+	/**
+	 * Declares an archetype, replacing any with the same name.
+	 * This is the same as reading <code>.name(field, field, ...);</code> from a source.
+	 * @param name the archetype (structure) name.
+	 * @param fields the field names, in declaration order.
+	 * @throws NullPointerException if name, fields, or any field name is null.
+	 * @throws IllegalArgumentException if no field names are provided.
+	 */
+	public void declare(String name, String... fields)
+	{
+		if (name == null)
+			throw new NullPointerException("name");
+		if (fields.length == 0)
+			throw new IllegalArgumentException("An archetype needs at least one field.");
+		
+		String[] slots = fields.clone();
+		for (int i = 0; i < slots.length; i++)
+			if (slots[i] == null)
+				throw new NullPointerException("fields[" + i + "]");
+		put(new DLArchetype(name, slots));
+	}
+	
+	/**
+	 * Returns the field names of an archetype, in declaration order, or null if it is not declared.
+	 * @param name the archetype name.
+	 * @throws NullPointerException if name is null.
+	 */
+	public String[] getFields(String name)
+	{
+		DLArchetype archetype = archetypes.get(name);
+		return archetype != null ? archetype.fields.clone() : null;
+	}
+	
+	/**
+	 * Returns true if an archetype is declared in this registry.
+	 * @param name the archetype name.
+	 * @throws NullPointerException if name is null.
+	 */
+	public boolean contains(String name)
+	{
+		return archetypes.containsKey(name);
+	}
+	
+	/**
+	 * Removes an archetype from this registry.
+	 * @param name the archetype name.
+	 * @return true if it was declared, false if not.
+	 * @throws NullPointerException if name is null.
+	 */
+	public boolean remove(String name)
+	{
+		return archetypes.remove(name) != null;
+	}
+	
+	/**
+	 * Returns the names of the archetypes in this registry, in no particular order.
+	 */
+	public String[] getNames()
+	{
+		return archetypes.keySet().toArray(new String[0]);
+	}
+	
+	/**
+	 * Returns the number of archetypes in this registry.
+	 */
+	public int size()
+	{
+		return archetypes.size();
+	}
+	
+	/**
+	 * Removes every archetype from this registry.
+	 */
+	public void clear()
+	{
+		archetypes.clear();
+	}
+	
+	/**
+	 * Returns a compiled archetype, or null if it is not declared.
+	 */
+	DLArchetype get(String name)
+	{
+		return archetypes.get(name);
+	}
+	
+	/**
+	 * Adds a compiled archetype, replacing any with the same name.
+	 */
+	void put(DLArchetype archetype)
+	{
+		archetypes.put(archetype.name, archetype);
+	}
+	
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.util.Arrays;
+
+/**
+ * A growable buffer that array literals are collected in while they are parsed,
+ * so that each one is built in one pass and copied once into an exactly-sized array.
+ * A parser keeps one and reuses it for every array that it reads.
+ * Number arrays that hold only integers are kept as <code>int[]</code> or <code>long[]</code>.
+ * @author Matthew Tropiano
+ */
+final class DLArrayBuffer
+{
+	/** Starting capacity. */
+	private static final int DEFAULT_CAPACITY = 16;
+	/** Largest capacity that {@link #trim()} keeps. */
+	static final int MAX_KEPT_CAPACITY = 1024;
+	
+	/** Number storage. */
+	private double[] numbers;
+	/** Integer storage, alongside the numbers. */
+	private long[] longs;
+	/** True if every added number is an integer. */
+	private boolean integers;
+	/** True if every added number is an integer in int range. */
+	private boolean ints;
+	/** String storage. */
+	private String[] strings;
+	/** Number of collected values. */
+	private int size;
+	
+	DLArrayBuffer()
+	{
+		numbers = new double[DEFAULT_CAPACITY];
+		longs = new long[DEFAULT_CAPACITY];
+		strings = new String[DEFAULT_CAPACITY];
+		clear();
+	}
+	
+	/**
+	 * Empties this buffer for a new array.
+	 */
+	void clear()
+	{
+		size = 0;
+		integers = true;
+		ints = true;
+	}
+	
+	/**
+	 * Gives up storage grown past {@link #MAX_KEPT_CAPACITY} for a large array,
+	 * so that a buffer kept between reads does not keep the largest array's storage forever.
+	 */
+	void trim()
+	{
+		if (numbers.length > MAX_KEPT_CAPACITY)
+		{
+			numbers = new double[DEFAULT_CAPACITY];
+			longs = new long[DEFAULT_CAPACITY];
+		}
+		if (strings.length > MAX_KEPT_CAPACITY)
+			strings = new String[DEFAULT_CAPACITY];
+	}
+	
+	/**
+	 * Adds a number.
+	 */
+	void add(double d)
+	{
+		if (size == numbers.length)
+			grow();
+		integers = false;
+		ints = false;
+		numbers[size++] = d;
+	}
+	
+	/**
+	 * Adds an integer.
+	 */
+	void add(long l)
+	{
+		if (size == numbers.length)
+			grow();
+		if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE)
+			ints = false;
+		longs[size] = l;
+		numbers[size++] = l;
+	}
+	
+	private void grow()
+	{
+		numbers = Arrays.copyOf(numbers, size * 2);
+		longs = Arrays.copyOf(longs, size * 2);
+	}
+	
+	/**
+	 * Adds a String.
+	 */
+	void add(String s)
+	{
+		if (size == strings.length)
+			strings = Arrays.copyOf(strings, size * 2);
+		strings[size++] = s;
+	}
+	
+	/**
+	 * Returns a new value with the added numbers, and empties this buffer.
+	 */
+	DLValue toNumberValue()
+	{
+		DLValue out;
+		if (size > 0 && ints)
+		{
+			int[] ia = new int[size];
+			for (int i = 0; i < size; i++)
+				ia[i] = (int)longs[i];
+			out = new DLValue(ia);
+		}
+		else if (size > 0 && integers)
+			out = new DLValue(Arrays.copyOf(longs, size));
+		else
+			out = new DLValue(Arrays.copyOf(numbers, size));
+		clear();
+		return out;
+	}
+	
+	/**
+	 * Returns a new value with the added Strings, and empties this buffer.
+	 */
+	DLValue toStringValue()
+	{
+		DLValue out = new DLValue(Arrays.copyOf(strings, size));
+		// don't keep the Strings around.
+		Arrays.fill(strings, 0, size, null);
+		clear();
+		return out;
+	}
+	
+}
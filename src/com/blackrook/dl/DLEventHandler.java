@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+/**
+ * Receives the contents of a DL document as it is parsed, in document order,
+ * without a {@link DLStruct} tree being built.
+ * <p>
+ * Archetype clauses are expanded by the parser, so archetyped values arrive 
+ * through {@link #field(String, DLValue)} like any other field.
+ * Inheritance clauses cannot be resolved without a tree, so they are reported
+ * through {@link #inherit(String, DLValue)} for the handler to deal with.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ * @see DLReader#parse(String, java.io.InputStream, DLEventHandler)
+ */
+public interface DLEventHandler
+{
+	/**
+	 * Called when an archetype is declared.
+	 * @param name the archetype (structure) name.
+	 * @param fields the field names, in declaration order.
+	 */
+	public void archetypeDecl(String name, String[] fields);
+	
+	/**
+	 * Called when a structure starts.
+	 * Every call is matched by a later call to {@link #endStruct()}.
+	 * @param type the structure type.
+	 * @param value the structure's value, or null if it has none.
+	 */
+	public void startStruct(String type, DLValue value);
+	
+	/**
+	 * Called when the current structure inherits from a previously-declared one.
+	 * Handlers that cannot resolve the parent may throw a {@link DLParseException}, 
+	 * which is reported as a parse error at the clause.
+	 * @param type the type of the structure to inherit from.
+	 * @param value the value of the structure to inherit from.
+	 * @throws DLParseException if the parent cannot be resolved.
+	 */
+	public void inherit(String type, DLValue value);
+	
+	/**
+	 * Called when a field is read in the current structure (or the root, if no structure was started).
+	 * @param name the field name.
+	 * @param value the field value.
+	 */
+	public void field(String name, DLValue value);
+	
+	/**
+	 * Called when the current structure ends.
+	 */
+	public void endStruct();
+	
+}
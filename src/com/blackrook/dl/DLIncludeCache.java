@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of included resources that can be shared between {@link DLReader}s, 
+ * so that resources included by many sources are only read, decoded, and lexed once.
+ * <p>
+ * Resources are kept as decoded characters plus their tokens, and resources that only declare 
+ * archetypes also keep those archetypes compiled, so that including them again does not parse them.
+ * They are keyed by what {@link DLReader#getIncludeKey(String, String)} 
+ * returns for them: by default, a file's absolute path plus its modification time and length, 
+ * or a classpath resource's URL. A changed file gets a new key, and its old entry ages out.
+ * The least recently used resources are evicted when the cache grows past its size limit.
+ * </p>
+ * <p>
+ * This is safe to share between threads. Resources are read outside of its lock, so two
+ * readers that miss on the same resource at once may both read it.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ */
+public class DLIncludeCache
+{
+	/** Default size limit, in characters. */
+	public static final long DEFAULT_MAX_CHARACTERS = 16L * 1024 * 1024;
+	
+	/** The cached resources, in least to most recently used order. */
+	private LinkedHashMap<String, Entry> entries;
+	/** Size limit in characters. */
+	private long maxCharacters;
+	/** Size in characters. */
+	private long characters;
+	/** Number of lookups that found a resource. */
+	private long hits;
+	/** Number of lookups that didn't find a resource. */
+	private long misses;
+	
+	/**
+	 * Creates a new cache with the default size limit.
+	 * @see #DEFAULT_MAX_CHARACTERS
+	 */
+	public DLIncludeCache()
+	{
+		this(DEFAULT_MAX_CHARACTERS);
+	}
+	
+	/**
+	 * Creates a new cache.
+	 * @param maxCharacters the size limit of the cache, in characters. 
+	 * Resources larger than this are never cached.
+	 * @throws IllegalArgumentException if maxCharacters is less than 0.
+	 */
+	public DLIncludeCache(long maxCharacters)
+	{
+		if (maxCharacters < 0)
+			throw new IllegalArgumentException("Size limit cannot be less than 0.");
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+		this.maxCharacters = maxCharacters;
+		this.characters = 0L;
+		this.hits = 0L;
+		this.misses = 0L;
+	}
+	
+	/**
+	 * Returns a cached resource, or null if it is not cached.
+	 * Counts a hit or a miss.
+	 * <p>
+	 * Subclasses can override this and {@link #put(String, Entry)} to keep entries elsewhere.
+	 * This is called by many threads at once if the cache is shared.
+	 * </p>
+	 * @param key the resource key.
+	 * @return the cached entry, or null.
+	 */
+	protected synchronized Entry get(String key)
+	{
+		Entry out = entries.get(key);
+		if (out != null)
+			hits++;
+		else
+			misses++;
+		return out;
+	}
+	
+	/**
+	 * Caches a resource, evicting the least recently used resources if needed.
+	 * Resources larger than the size limit are not cached.
+	 * <p>
+	 * This is called by many threads at once if the cache is shared.
+	 * </p>
+	 * @param key the resource key.
+	 * @param entry the resource.
+	 */
+	protected void put(String key, Entry entry)
+	{
+		int length = entry.getCharacters();
+		if (length > maxCharacters)
+			return;
+		
+		synchronized (this)
+		{
+			Entry old = entries.put(key, entry);
+			if (old != null)
+				characters -= old.getCharacters();
+			characters += length;
+			
+			Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+			while (characters > maxCharacters && it.hasNext())
+			{
+				characters -= it.next().getValue().getCharacters();
+				it.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of lookups that found a cached resource.
+	 */
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of lookups that did not find a cached resource.
+	 */
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+	
+	/**
+	 * Returns the number of cached resources.
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+	
+	/**
+	 * Returns the total size of the cached resources, in characters.
+	 */
+	public synchronized long getCharacters()
+	{
+		return characters;
+	}
+	
+	/**
+	 * Returns the size limit of this cache, in characters.
+	 */
+	public long getMaxCharacters()
+	{
+		return maxCharacters;
+	}
+	
+	/**
+	 * Removes all cached resources and resets the hit and miss counts.
+	 */
+	public synchronized void clear()
+	{
+		entries.clear();
+		characters = 0L;
+		hits = 0L;
+		misses = 0L;
+	}
+	
+	/**
+	 * A cached resource: its decoded characters, its tokens, and its compiled archetypes,
+	 * if all that it does is declare archetypes. This never changes after it is made.
+	 */
+	public static final class Entry
+	{
+		/** The decoded characters. */
+		private final char[] content;
+		/** The tokens. */
+		private final int[] tokens;
+		/** The compiled archetypes, or null. */
+		private final DLArchetype[] archetypes;
+		
+		/**
+		 * Reads, lexes, and compiles a resource.
+		 * @param input the resource's input, which must be character storage.
+		 */
+		Entry(DLLexer.Input input)
+		{
+			this.content = input.chars.length == input.limit && input.pos == 0 
+				? input.chars 
+				: Arrays.copyOfRange(input.chars, input.pos, input.limit);
+			DLLexer.Input in = new DLLexer.Input(input.name, content, 0, content.length);
+			this.tokens = DLLexer.tokenize(in);
+			this.archetypes = DLLexer.compileArchetypes(in, tokens);
+		}
+		
+		/**
+		 * Returns the size of the resource, in characters.
+		 */
+		public int getCharacters()
+		{
+			return content.length;
+		}
+		
+		/**
+		 * Returns true if all that the resource does is declare archetypes.
+		 */
+		public boolean isArchetypesOnly()
+		{
+			return archetypes != null;
+		}
+		
+		/**
+		 * Returns a new input for reading the resource.
+		 * @param name the stream name of the input.
+		 */
+		DLLexer.Input open(String name)
+		{
+			DLLexer.Input out = new DLLexer.Input(name, content, 0, content.length);
+			out.tokens = tokens;
+			out.archetypes = archetypes;
+			return out;
+		}
+		
+	}
+	
+}
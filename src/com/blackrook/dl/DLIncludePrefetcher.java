@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import com.blackrook.commons.linkedlist.Queue;
+
+/**
+ * Loads the resources included by a source ahead of time, so that a {@link DLLexer}
+ * does not wait on each one in turn.
+ * <p>
+ * Each input given to this is scanned for include directives without being lexed, and every
+ * resource found is opened and read on an executor. Each loaded resource is scanned in turn,
+ * so a whole tree of includes loads at once. When the lexer reaches a directive, it takes the 
+ * loaded input, waiting for it if it is still loading, and falls back to opening the resource 
+ * itself if the directive was not found by the scan.
+ * </p>
+ * @author Matthew Tropiano
+ */
+final class DLIncludePrefetcher
+{
+	/** The reader that resolves includes. */
+	private final DLReader reader;
+	/** The executor to load resources on. */
+	private final Executor executor;
+	/** Loaded or loading resources, by including stream name and path. */
+	private final ConcurrentHashMap<String, FutureTask<DLLexer.Input>> loads;
+	
+	/**
+	 * Creates a new prefetcher.
+	 * @param reader the reader used for resolving includes.
+	 * @param executor the executor to load resources on.
+	 */
+	DLIncludePrefetcher(DLReader reader, Executor executor)
+	{
+		this.reader = reader;
+		this.executor = executor;
+		this.loads = new ConcurrentHashMap<String, FutureTask<DLLexer.Input>>(); 
+	}
+	
+	/**
+	 * Attaches this to an input and starts loading everything that it includes.
+	 */
+	void prefetch(DLLexer.Input input)
+	{
+		input.prefetcher = this;
+		Queue<String> paths = new Queue<String>();
+		DLLexer.findIncludes(input, paths);
+		while (!paths.isEmpty())
+			load(input.name, paths.dequeue());
+	}
+	
+	/**
+	 * Returns a new input for a loaded resource, waiting for it to load if it has to.
+	 * @param streamName the name of the stream that includes the resource.
+	 * @param path the included path.
+	 * @return the input, or null if the resource was not found.
+	 * @throws IOException if the resource could not be read.
+	 * @throws IllegalStateException if the resource was not prefetched.
+	 */
+	DLLexer.Input take(String streamName, String path) throws IOException
+	{
+		FutureTask<DLLexer.Input> task = loads.get(key(streamName, path));
+		if (task == null)
+			throw new IllegalStateException("Include was not prefetched.");
+
+		DLLexer.Input loaded;
+		try {
+			loaded = task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for include.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			else if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IOException(e.getCause());
+		}
+		
+		// the loaded input is kept untouched, in case it is included again.
+		return loaded != null ? loaded.copy() : null;
+	}
+	
+	/**
+	 * Returns true if a resource was prefetched.
+	 */
+	boolean contains(String streamName, String path)
+	{
+		return loads.containsKey(key(streamName, path));
+	}
+	
+	/**
+	 * Starts loading a resource, if it isn't loaded already.
+	 */
+	private void load(final String streamName, final String path)
+	{
+		FutureTask<DLLexer.Input> task = new FutureTask<DLLexer.Input>(new Callable<DLLexer.Input>()
+		{
+			@Override
+			public DLLexer.Input call() throws IOException
+			{
+				DLLexer.Input out = reader.openInclude(streamName, path);
+				if (out != null)
+					prefetch(out);
+				return out;
+			}
+		});
+		
+		if (loads.putIfAbsent(key(streamName, path), task) == null)
+			executor.execute(task);
+	}
+	
+	private static String key(String streamName, String path)
+	{
+		return streamName + '\0' + path;
+	}
+	
+}
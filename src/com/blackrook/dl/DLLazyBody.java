@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import com.blackrook.commons.hash.HashMap;
+
+/**
+ * The unread body of a {@link DLStruct} that was read lazily by a {@link DLReader}.
+ * <p>
+ * This holds the range of the source between the struct's braces, found by brace-matching 
+ * without lexing, plus the reading state needed to parse that range later: 
+ * the archetypes declared before it and the struct's place in the reader's projection.
+ * </p>
+ * @author Matthew Tropiano
+ */
+final class DLLazyBody
+{
+	/** The reader that deferred this body. */
+	final DLReader reader;
+	/** The body's source range, from just after its opening brace to just after its closing brace. */
+	final DLLexer.Input input;
+	/** The archetypes declared in the source before the body, which later declarations do not change. */
+	final HashMap<String,DLArchetype> archetypeTable;
+	/** The projection in use, or null. */
+	final DLProjection projection;
+	/** The projection path to the struct, or null if no projection is in use. */
+	final String[] path;
+	/** The projection match of the struct. */
+	final int match;
+	
+	DLLazyBody(DLReader reader, DLLexer.Input input, HashMap<String,DLArchetype> archetypeTable, DLProjection projection, String[] path, int match)
+	{
+		this.reader = reader;
+		this.input = input;
+		this.archetypeTable = archetypeTable;
+		this.projection = projection;
+		this.path = path;
+		this.match = match;
+	}
+	
+	/**
+	 * Reads this body into a struct.
+	 * @throws DLParseException if the body contains a parse error.
+	 */
+	void readInto(DLStruct struct)
+	{
+		reader.readBody(this, struct);
+	}
+	
+}
@@ -0,0 +1,1551 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+
+import com.blackrook.commons.linkedlist.Queue;
+import com.blackrook.commons.linkedlist.Stack;
+
+/**
+ * The lexer used by {@link DLReader}.
+ * <p>
+ * This scans an in-memory character or UTF-8 byte buffer directly, and hands out each token as a
+ * type plus an offset and length into its input. Lexemes are only turned into Strings
+ * when the parser actually asks for one, so punctuation and skipped input never allocate.
+ * </p>
+ * <p>
+ * <code>#include "path"</code> directives are resolved through
+ * {@link DLReader#getIncludeResource(String, String)} and spliced into the token stream.
+ * </p>
+ * @author Matthew Tropiano
+ */
+final class DLLexer
+{
+	public static final int TYPE_END_OF_LEXER = -1;
+	public static final int TYPE_ILLEGAL = -2;
+
+	public static final int TYPE_LBRACE = 0;
+	public static final int TYPE_RBRACE = 1;
+	public static final int TYPE_LPAREN = 2;
+	public static final int TYPE_RPAREN = 3;
+	public static final int TYPE_LBRACK = 4;
+	public static final int TYPE_RBRACK = 5;
+	public static final int TYPE_SEMICOLON = 6;
+	public static final int TYPE_COLON = 7;
+	public static final int TYPE_COMMA = 8;
+	public static final int TYPE_PERIOD = 9;
+	public static final int TYPE_MINUS = 10;
+
+	public static final int TYPE_IDENTIFIER = 12;
+	public static final int TYPE_STRING = 13;
+	public static final int TYPE_NUMBER = 14;
+	public static final int TYPE_FLOAT = 15;
+
+	/** Token type of a recorded include directive, whose lexeme is the included path. Never returned. */
+	private static final int TYPE_INCLUDE = -3;
+
+	/** Number of ints per recorded token: type and flags, start offset, length, and line. */
+	private static final int TOKEN_SIZE = 4;
+	/** Recorded token flag: the token is a string with escape sequences. */
+	private static final int TOKEN_ESCAPED = 0x100;
+
+	/** Statement kind: no more statements. */
+	public static final int STATEMENT_NONE = 0;
+	/** Statement kind: a statement that can be read apart from the ones around it. */
+	public static final int STATEMENT_INDEPENDENT = 1;
+	/** Statement kind: an archetype declaration. */
+	public static final int STATEMENT_ARCHETYPE = 2;
+	/** Statement kind: a statement that depends on what was read before it (inherits or includes). */
+	public static final int STATEMENT_DEPENDENT = 3;
+
+	/** The include directive name. */
+	private static final String DIRECTIVE_INCLUDE = "include";
+	/** Size of the buffer used for draining readers. */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/** Powers of ten that are exactly representable as doubles. */
+	private static final double[] EXACT_POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	/** Largest significand that is exactly representable as a double. */
+	private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+	/** Significands at or past this would overflow on another digit. */
+	private static final long MAX_SIGNIFICAND_DIGITS = 100000000000000000L;
+	/** The digits of the largest long. */
+	private static final String LONG_LIMIT = Long.toString(Long.MAX_VALUE);
+
+	/** Delimiter types, indexed by ASCII character. */
+	private static final byte[] DELIMITER_TYPE = new byte[128];
+
+	static
+	{
+		for (int i = 0; i < DELIMITER_TYPE.length; i++)
+			DELIMITER_TYPE[i] = -1;
+		DELIMITER_TYPE['{'] = TYPE_LBRACE;
+		DELIMITER_TYPE['}'] = TYPE_RBRACE;
+		DELIMITER_TYPE['('] = TYPE_LPAREN;
+		DELIMITER_TYPE[')'] = TYPE_RPAREN;
+		DELIMITER_TYPE['['] = TYPE_LBRACK;
+		DELIMITER_TYPE[']'] = TYPE_RBRACK;
+		DELIMITER_TYPE[';'] = TYPE_SEMICOLON;
+		DELIMITER_TYPE[':'] = TYPE_COLON;
+		DELIMITER_TYPE[','] = TYPE_COMMA;
+		DELIMITER_TYPE['.'] = TYPE_PERIOD;
+		DELIMITER_TYPE['-'] = TYPE_MINUS;
+	}
+
+	/** The reader that resolves includes. */
+	private DLReader reader;
+	/** Current input. */
+	private Input input;
+	/** Inputs suspended by an include. */
+	private Stack<Input> inputStack;
+
+	/** Current token type. */
+	private int type;
+	/** Input that the current token came from. */
+	private Input tokenInput;
+	/** Current token start offset. */
+	private int tokenStart;
+	/** Current token length. */
+	private int tokenLength;
+	/** Current token line. */
+	private int tokenLine;
+	/** If true, the current string token contains escape sequences. */
+	private boolean tokenEscaped;
+	/** If true, include directives are returned as tokens instead of being followed. */
+	private boolean recording;
+
+	/**
+	 * Creates a new lexer.
+	 * @param reader the reader used for resolving includes.
+	 * @param input the starting input.
+	 */
+	DLLexer(DLReader reader, Input input)
+	{
+		this.reader = reader;
+		this.input = input;
+		this.inputStack = new Stack<Input>();
+		this.type = TYPE_ILLEGAL;
+	}
+
+	/**
+	 * Starts this lexer over on a new input, as though it was just created.
+	 */
+	void reset(Input input)
+	{
+		this.input = input;
+		this.inputStack.clear();
+		this.type = TYPE_ILLEGAL;
+		this.tokenInput = null;
+	}
+
+	/**
+	 * Returns the type of the current token.
+	 */
+	int getType()
+	{
+		return type;
+	}
+
+	/**
+	 * Returns true if the current token is of the provided type.
+	 */
+	boolean isType(int type)
+	{
+		return this.type == type;
+	}
+
+	/**
+	 * Returns true if the lexer is out of tokens.
+	 */
+	boolean isEnd()
+	{
+		return type == TYPE_END_OF_LEXER;
+	}
+
+	/**
+	 * Returns the name of the stream that the current token came from.
+	 */
+	String getStreamName()
+	{
+		return tokenInput != null ? tokenInput.name : input.name;
+	}
+
+	/**
+	 * Returns the line number of the current token.
+	 */
+	int getLine()
+	{
+		return tokenLine;
+	}
+
+	/**
+	 * Returns an error message prefixed with the stream name, line, and current token.
+	 */
+	String getErrorMessage(String message)
+	{
+		if (type == TYPE_END_OF_LEXER)
+			return "(" + getStreamName() + ") Line " + tokenLine + ", at end of input: " + message;
+		else
+			return "(" + getStreamName() + ") Line " + tokenLine + ", Token \"" + getLexeme() + "\": " + message;
+	}
+
+	/**
+	 * Returns the current token's lexeme.
+	 * Strings are returned without their quotes and with their escape sequences resolved.
+	 * Identifiers are interned, if the input has a symbol table.
+	 */
+	String getLexeme()
+	{
+		if (type == TYPE_END_OF_LEXER)
+			return "";
+		if (type == TYPE_IDENTIFIER && tokenInput.symbols != null)
+			return tokenInput.symbols.intern(tokenInput, tokenStart, tokenStart + tokenLength);
+		if (type == TYPE_STRING && tokenEscaped)
+			return unescape(tokenInput, tokenStart, tokenStart + tokenLength);
+		return tokenInput.substring(tokenStart, tokenStart + tokenLength);
+	}
+
+	/**
+	 * Returns the current token's value as a number.
+	 * <p>
+	 * Numbers are parsed straight from the input. When the digits fit exactly in a double's significand 
+	 * and the decimal exponent is small enough that its power of ten is exact too, the result is one 
+	 * multiplication or division of two exact values, which is correctly rounded (Clinger's fast path). 
+	 * Everything else goes through {@link Double#parseDouble(String)}, so the result is always the same.
+	 * </p>
+	 * @throws NumberFormatException if the current token is not a number.
+	 */
+	double getNumber()
+	{
+		if (type != TYPE_NUMBER && type != TYPE_FLOAT)
+			throw new NumberFormatException("Token is not a number: " + getLexeme());
+		
+		Input in = tokenInput;
+		int p = tokenStart;
+		int end = tokenStart + tokenLength;
+		long significand = 0L;
+		int scale = 0;
+		int c;
+		
+		while (p < end && isDigit(c = in.at(p)))
+		{
+			if (significand >= MAX_SIGNIFICAND_DIGITS)
+				return parseNumber();
+			significand = significand * 10 + (c - '0');
+			p++;
+		}
+		
+		if (p < end && in.at(p) == '.')
+		{
+			p++;
+			while (p < end && isDigit(c = in.at(p)))
+			{
+				if (significand >= MAX_SIGNIFICAND_DIGITS)
+					return parseNumber();
+				significand = significand * 10 + (c - '0');
+				scale--;
+				p++;
+			}
+		}
+		
+		if (p < end)
+		{
+			// exponent
+			p++;
+			boolean negative = false;
+			if ((c = in.at(p)) == '+' || c == '-')
+			{
+				negative = c == '-';
+				p++;
+			}
+			int exponent = 0;
+			while (p < end)
+			{
+				exponent = exponent * 10 + (in.at(p) - '0');
+				if (exponent > EXACT_POWERS_OF_TEN.length * 2)
+					return parseNumber();
+				p++;
+			}
+			scale += negative ? -exponent : exponent;
+		}
+
+		if (significand > MAX_EXACT_SIGNIFICAND)
+			return parseNumber();
+		else if (scale == 0)
+			return significand;
+		else if (scale > 0 && scale < EXACT_POWERS_OF_TEN.length)
+			return significand * EXACT_POWERS_OF_TEN[scale];
+		else if (scale < 0 && -scale < EXACT_POWERS_OF_TEN.length)
+			return significand / EXACT_POWERS_OF_TEN[-scale];
+		else
+			return parseNumber();
+	}
+
+	/**
+	 * Returns true if the current token is an integer that fits in a long,
+	 * after being negated if <code>negative</code> is true.
+	 */
+	boolean isLong(boolean negative)
+	{
+		if (type != TYPE_NUMBER)
+			return false;
+		
+		Input in = tokenInput;
+		int p = tokenStart;
+		int end = tokenStart + tokenLength;
+		while (p < end - 1 && in.at(p) == '0')
+			p++;
+		
+		int digits = end - p;
+		if (digits != LONG_LIMIT.length())
+			return digits < LONG_LIMIT.length();
+		
+		// same number of digits as the limit: compare them in order.
+		for (int i = 0; i < digits; i++)
+		{
+			int c = in.at(p + i);
+			int l = i == digits - 1 && negative ? LONG_LIMIT.charAt(i) + 1 : LONG_LIMIT.charAt(i);
+			if (c != l)
+				return c < l;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the current token's value as a long, negated if <code>negative</code> is true.
+	 * The token must be one that {@link #isLong(boolean)} is true for.
+	 */
+	long getLong(boolean negative)
+	{
+		Input in = tokenInput;
+		int end = tokenStart + tokenLength;
+		// accumulate negatively, so that Long.MIN_VALUE fits.
+		long out = 0L;
+		for (int p = tokenStart; p < end; p++)
+			out = out * 10 - (in.at(p) - '0');
+		return negative ? out : -out;
+	}
+
+	/**
+	 * Parses the current token as a number the slow way.
+	 */
+	private double parseNumber()
+	{
+		return Double.parseDouble(tokenInput.substring(tokenStart, tokenStart + tokenLength));
+	}
+
+	/**
+	 * Advances to the next token.
+	 * @throws DLParseException if an included resource cannot be read.
+	 */
+	void nextToken()
+	{
+		while (true)
+		{
+			Input in = input;
+			if (in.tokens != null && in.token < in.tokens.length)
+			{
+				replayToken(in);
+				if (type != TYPE_INCLUDE)
+					return;
+				include(in, getLexeme());
+				continue;
+			}
+			
+			int p = in.tokens != null ? in.limit : skipWhitespace(in, in.pos);
+
+			if (p >= in.limit)
+			{
+				in.pos = p;
+				if (inputStack.isEmpty())
+				{
+					setToken(TYPE_END_OF_LEXER, in, p, 0);
+					return;
+				}
+				input = inputStack.pop();
+				continue;
+			}
+
+			int c = in.at(p);
+
+			if (c < 128 && DELIMITER_TYPE[c] >= 0)
+			{
+				setToken(DELIMITER_TYPE[c], in, p, 1);
+				in.pos = p + 1;
+			}
+			else if (c == '"')
+			{
+				scanString(in, p);
+			}
+			else if (isDigit(c))
+			{
+				scanNumber(in, p);
+			}
+			else if (c < 128 ? isIdentifierStart(c) : isIdentifierStart(in.charAt(p)))
+			{
+				int e = scanIdentifier(in, p + (c < 128 ? 1 : in.charLength));
+				setToken(TYPE_IDENTIFIER, in, p, e - p);
+				in.pos = e;
+			}
+			else if (c == '#')
+			{
+				in.pos = p + 1;
+				if (directive(in, p))
+					continue;
+			}
+			else
+			{
+				int len = c < 128 ? 1 : charLength(in, p);
+				setToken(TYPE_ILLEGAL, in, p, len);
+				in.pos = p + len;
+			}
+
+			return;
+		}
+	}
+
+	/**
+	 * Skips the rest of a brace-enclosed block without producing tokens for its contents.
+	 * The lexer is expected to be inside the block, with the current token being the
+	 * first one after its opening brace. After this returns, the current token is the one 
+	 * after the block's closing brace.
+	 * Include directives inside the skipped block are not processed.
+	 * @return true if the closing brace was found, false if the input ended first.
+	 */
+	boolean skipBlock()
+	{
+		int depth = 1;
+		if (type == TYPE_RBRACE)
+		{
+			nextToken();
+			return true;
+		}
+		else if (type == TYPE_LBRACE)
+			depth++;
+		else if (type == TYPE_END_OF_LEXER)
+			return false;
+
+		while (true)
+		{
+			Input in = input;
+			if ((depth = scanBlock(in, depth)) == 0)
+			{
+				nextToken();
+				return true;
+			}
+			
+			if (inputStack.isEmpty())
+			{
+				setToken(TYPE_END_OF_LEXER, in, in.limit, 0);
+				return false;
+			}
+			input = inputStack.pop();
+		}
+	}
+
+	/**
+	 * Skips a brace-enclosed block like {@link #skipBlock()}, but returns its range 
+	 * as a new input instead of discarding it, so that it can be lexed later.
+	 * The current token is expected to be the block's opening brace, and the block
+	 * must close in the same input that it opened in.
+	 * After this returns, the current token is the one after the block's closing brace.
+	 * @return the input that spans from just after the opening brace to just after the closing one,
+	 * 		or null if the input ended first.
+	 */
+	Input deferBlock()
+	{
+		Input in = input;
+		int start = in.pos;
+		int line = in.line;
+		if (scanBlock(in, 1) != 0)
+		{
+			setToken(TYPE_END_OF_LEXER, in, in.limit, 0);
+			return null;
+		}
+		Input out = in.region(start, in.pos, line);
+		nextToken();
+		return out;
+	}
+
+	/**
+	 * Returns the archetypes declared by the included resource that the current token starts,
+	 * if everything in that resource is an archetype declaration and they were compiled when it was cached.
+	 * @return the archetypes in declaration order, or null.
+	 * @see #skipInput()
+	 */
+	DLArchetype[] getIncludedArchetypes()
+	{
+		Input in = tokenInput;
+		return in == input && in.archetypes != null && in.token == TOKEN_SIZE ? in.archetypes : null;
+	}
+
+	/**
+	 * Skips the rest of the input that the current token came from, 
+	 * and advances to the next token after it.
+	 */
+	void skipInput()
+	{
+		input.pos = input.limit;
+		if (input.tokens != null)
+			input.token = input.tokens.length;
+		nextToken();
+	}
+
+	/**
+	 * Lexes an input ahead of time, so that it can be read again without scanning it.
+	 * Include directives are recorded instead of followed, and are followed each time
+	 * the tokens are read. The input's position is not changed.
+	 * @return the tokens, {@value #TOKEN_SIZE} ints each.
+	 * @see Input#tokens
+	 */
+	static int[] tokenize(Input input)
+	{
+		Input in = input.region(input.pos, input.limit, input.line);
+		in.symbols = null;
+		DLLexer lexer = new DLLexer(null, in);
+		lexer.recording = true;
+		int[] out = new int[TOKEN_SIZE * 64];
+		int n = 0;
+		while (true)
+		{
+			lexer.nextToken();
+			if (lexer.type == TYPE_END_OF_LEXER)
+				break;
+			if (n == out.length)
+				out = Arrays.copyOf(out, n * 2);
+			out[n++] = (lexer.type & 0xff) | (lexer.tokenEscaped ? TOKEN_ESCAPED : 0);
+			out[n++] = lexer.tokenStart;
+			out[n++] = lexer.tokenLength;
+			out[n++] = lexer.tokenLine;
+		}
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Compiles the archetypes declared by a tokenized input, 
+	 * if every statement in it is an archetype declaration.
+	 * @param input the input that was tokenized.
+	 * @param tokens its tokens.
+	 * @return the archetypes in declaration order, or null if the input is empty or has anything else in it.
+	 */
+	static DLArchetype[] compileArchetypes(Input input, int[] tokens)
+	{
+		Queue<DLArchetype> out = new Queue<DLArchetype>();
+		Queue<String> fields = new Queue<String>();
+		int i = 0;
+		while (i < tokens.length)
+		{
+			// . <ID> ( <ID> [, <ID>]* ) ;
+			if ((i = expectToken(tokens, i, TYPE_PERIOD)) < 0 || expectToken(tokens, i, TYPE_IDENTIFIER) < 0)
+				return null;
+			String name = input.substring(tokens[i + 1], tokens[i + 1] + tokens[i + 2]);
+			if ((i = expectToken(tokens, i + TOKEN_SIZE, TYPE_LPAREN)) < 0)
+				return null;
+			do {
+				if (expectToken(tokens, i, TYPE_IDENTIFIER) < 0)
+					return null;
+				fields.enqueue(input.substring(tokens[i + 1], tokens[i + 1] + tokens[i + 2]));
+				i += TOKEN_SIZE;
+			} while ((i = expectToken(tokens, i, TYPE_COMMA)) >= 0);
+			i = -i - 1;
+			if ((i = expectToken(tokens, i, TYPE_RPAREN)) < 0 || (i = expectToken(tokens, i, TYPE_SEMICOLON)) < 0)
+				return null;
+			
+			String[] ids = new String[fields.size()];
+			for (int f = 0; f < ids.length; f++)
+				ids[f] = fields.dequeue();
+			out.enqueue(new DLArchetype(name, ids));
+		}
+		
+		if (out.isEmpty())
+			return null;
+		DLArchetype[] archetypes = new DLArchetype[out.size()];
+		for (int a = 0; a < archetypes.length; a++)
+			archetypes[a] = out.dequeue();
+		return archetypes;
+	}
+
+	/**
+	 * Checks the type of a recorded token.
+	 * @return the index of the next token if the token has the type, or <code>-index - 1</code> if not.
+	 */
+	private static int expectToken(int[] tokens, int i, int type)
+	{
+		return i < tokens.length && (byte)tokens[i] == type ? i + TOKEN_SIZE : -i - 1;
+	}
+
+	/**
+	 * Scans the raw current input for the next top-level statement, without lexing it, 
+	 * so that the input can be split up at statement boundaries.
+	 * Include directives are not processed. This does not change the current token.
+	 * @param range the output array for the statement's starting offset, ending offset (exclusive),
+	 * 		and starting line, in that order.
+	 * @return the statement's kind, one of the <code>STATEMENT_*</code> constants.
+	 */
+	int scanStatement(int[] range)
+	{
+		Input in = input;
+		int limit = in.limit;
+		int p = skipWhitespace(in, in.pos);
+		if (p >= limit)
+		{
+			in.pos = limit;
+			return STATEMENT_NONE;
+		}
+		
+		range[0] = p;
+		range[2] = in.line;
+		int kind = in.at(p) == '.' ? STATEMENT_ARCHETYPE : STATEMENT_INDEPENDENT;
+		while (p < limit)
+		{
+			int c = in.at(p);
+			if (c == ';')
+			{
+				p++;
+				break;
+			}
+			else if (c == '{')
+			{
+				in.pos = p + 1;
+				scanBlock(in, 1);
+				p = in.pos;
+				break;
+			}
+			else if (c == ':' || c == '#')
+			{
+				kind = STATEMENT_DEPENDENT;
+				p++;
+				// a directive ends after its argument.
+				if (c == '#' && p - 1 == range[0])
+				{
+					while (p < limit && (c = in.at(p)) != '"' && c != '\n')
+						p++;
+					if (c == '"')
+						p = scanQuoted(in, p);
+					break;
+				}
+			}
+			else if (c == '"')
+			{
+				p = scanQuoted(in, p);
+			}
+			else if (c == '/' || c <= ' ')
+			{
+				// comments and whitespace
+				int e = skipWhitespace(in, p);
+				p = e == p ? p + 1 : e;
+			}
+			else
+				p++;
+		}
+		
+		in.pos = Math.min(p, limit);
+		range[1] = in.pos;
+		return kind;
+	}
+
+	/**
+	 * Scans raw input past a quoted string, counting lines.
+	 * @param p the offset of the opening quote.
+	 * @return the offset after the closing quote.
+	 */
+	private static int scanQuoted(Input in, int p)
+	{
+		int limit = in.limit;
+		int c;
+		p++;
+		while (p < limit && (c = in.at(p)) != '"')
+		{
+			if (c == '\\')
+				p++;
+			else if (c == '\n')
+				in.line++;
+			p++;
+		}
+		return p + 1;
+	}
+
+	/**
+	 * Scans raw input for the end of a brace-enclosed block, skipping strings and comments.
+	 * The input's position and line are advanced to just after the closing brace,
+	 * or to the end of the input if it is not found.
+	 * @param depth the starting brace depth.
+	 * @return the brace depth remaining, which is 0 if the closing brace was found.
+	 */
+	private int scanBlock(Input in, int depth)
+	{
+		if (in.tokens != null)
+			return scanTokenBlock(in, depth);
+		
+		int p = in.pos;
+		int limit = in.limit;
+		while (p < limit)
+		{
+			int c = in.at(p);
+			if (c == '{')
+			{
+				depth++;
+				p++;
+			}
+			else if (c == '}')
+			{
+				p++;
+				if (--depth == 0)
+				{
+					in.pos = p;
+					return 0;
+				}
+			}
+			else if (c == '"')
+			{
+				p = scanQuoted(in, p);
+			}
+			else if (c == '/' || c <= ' ')
+			{
+				// comments and whitespace
+				int e = skipWhitespace(in, p);
+				p = e == p ? p + 1 : e;
+			}
+			else
+				p++;
+		}
+		
+		in.pos = limit;
+		return depth;
+	}
+
+	/**
+	 * Scans recorded tokens for the end of a brace-enclosed block, like {@link #scanBlock(Input, int)}.
+	 */
+	private static int scanTokenBlock(Input in, int depth)
+	{
+		int[] tokens = in.tokens;
+		int i = in.token;
+		while (i < tokens.length)
+		{
+			int t = (byte)tokens[i];
+			if (t == TYPE_LBRACE)
+				depth++;
+			else if (t == TYPE_RBRACE && --depth == 0)
+			{
+				in.token = i + TOKEN_SIZE;
+				in.pos = tokens[i + 1] + 1;
+				in.line = tokens[i + 3];
+				return 0;
+			}
+			i += TOKEN_SIZE;
+		}
+		
+		in.token = i;
+		in.pos = in.limit;
+		return depth;
+	}
+
+	/**
+	 * Skips whitespace and comments, counting lines.
+	 * @return the offset of the next significant character.
+	 */
+	private static int skipWhitespace(Input in, int p)
+	{
+		int limit = in.limit;
+		while (p < limit)
+		{
+			int c = in.at(p);
+			if (c == '\n')
+			{
+				in.line++;
+				p++;
+			}
+			else if (c == ' ' || c == '\t' || c == '\r' || c == '\f')
+			{
+				p++;
+			}
+			else if (c == '/' && p + 1 < limit && in.at(p + 1) == '/')
+			{
+				p += 2;
+				while (p < limit && in.at(p) != '\n')
+					p++;
+			}
+			else if (c == '/' && p + 1 < limit && in.at(p + 1) == '*')
+			{
+				p += 2;
+				while (p < limit && !(in.at(p) == '*' && p + 1 < limit && in.at(p + 1) == '/'))
+				{
+					if (in.at(p) == '\n')
+						in.line++;
+					p++;
+				}
+				p = Math.min(p + 2, limit);
+			}
+			else if (c <= ' ')
+			{
+				p++;
+			}
+			else if (c >= 128 && Character.isWhitespace(in.charAt(p)))
+			{
+				p += in.charLength;
+			}
+			else
+			{
+				break;
+			}
+		}
+		return p;
+	}
+
+	// Scans a string token starting at the opening quote.
+	private void scanString(Input in, int p)
+	{
+		int limit = in.limit;
+		int line = in.line;
+		int s = p + 1;
+		boolean escaped = false;
+		p = s;
+		while (p < limit)
+		{
+			int c = in.at(p);
+			if (c == '"')
+				break;
+			else if (c == '\\')
+			{
+				escaped = true;
+				p++;
+			}
+			else if (c == '\n')
+				in.line++;
+			p++;
+		}
+
+		if (p >= limit)
+		{
+			// unterminated.
+			setToken(TYPE_ILLEGAL, in, s - 1, limit - s + 1);
+			tokenLine = line;
+			in.pos = limit;
+			return;
+		}
+
+		setToken(TYPE_STRING, in, s, p - s);
+		tokenLine = line;
+		tokenEscaped = escaped;
+		in.pos = p + 1;
+	}
+
+	// Scans a number token starting at its first digit.
+	private void scanNumber(Input in, int p)
+	{
+		int limit = in.limit;
+		int s = p;
+		int t = TYPE_NUMBER;
+
+		while (p < limit && isDigit(in.at(p)))
+			p++;
+
+		if (p < limit && in.at(p) == '.')
+		{
+			t = TYPE_FLOAT;
+			p++;
+			while (p < limit && isDigit(in.at(p)))
+				p++;
+		}
+
+		if (p < limit && (in.at(p) == 'e' || in.at(p) == 'E'))
+		{
+			int e = p + 1;
+			if (e < limit && (in.at(e) == '+' || in.at(e) == '-'))
+				e++;
+			if (e < limit && isDigit(in.at(e)))
+			{
+				t = TYPE_FLOAT;
+				p = e;
+				while (p < limit && isDigit(in.at(p)))
+					p++;
+			}
+		}
+
+		setToken(t, in, s, p - s);
+		in.pos = p;
+	}
+
+	// Scans the rest of an identifier, returning its end.
+	private static int scanIdentifier(Input in, int p)
+	{
+		int limit = in.limit;
+		int c;
+		while (p < limit)
+		{
+			if ((c = in.at(p)) < 128)
+			{
+				if (!isIdentifierPart(c))
+					break;
+				p++;
+			}
+			else if (isIdentifierPart(in.charAt(p)))
+				p += in.charLength;
+			else
+				break;
+		}
+		return p;
+	}
+
+	/**
+	 * Handles a directive that was started with '#'.
+	 * @return true if the directive was consumed, false if it produced an illegal token.
+	 */
+	private boolean directive(Input in, int hashOffset)
+	{
+		int p = in.pos;
+		int e = scanIdentifier(in, p);
+		if (e - p != DIRECTIVE_INCLUDE.length() || !in.regionMatches(p, DIRECTIVE_INCLUDE))
+		{
+			setToken(TYPE_ILLEGAL, in, hashOffset, e - hashOffset);
+			in.pos = Math.max(e, hashOffset + 1);
+			return false;
+		}
+
+		p = skipWhitespace(in, e);
+		if (p >= in.limit || in.at(p) != '"')
+		{
+			setToken(TYPE_ILLEGAL, in, hashOffset, p - hashOffset);
+			in.pos = p;
+			return false;
+		}
+
+		scanString(in, p);
+		if (type != TYPE_STRING)
+			return false;
+		if (recording)
+		{
+			type = TYPE_INCLUDE;
+			return false;
+		}
+		
+		include(in, getLexeme());
+		return true;
+	}
+
+	/**
+	 * Opens an included resource and switches to it, suspending the current input.
+	 * The current token is the include directive's path.
+	 * @throws DLParseException if the resource cannot be read.
+	 */
+	private void include(Input in, String path)
+	{
+		Input included;
+		try {
+			included = openInclude(in.name, path);
+		} catch (IOException e1) {
+			throw new DLParseException("(" + in.name + ") Line " + tokenLine + ": Could not include \"" + path + "\": " + e1.getMessage(), e1);
+		}
+
+		if (included == null)
+			throw new DLParseException("(" + in.name + ") Line " + tokenLine + ": Could not include \"" + path + "\": resource not found.");
+
+		inputStack.push(in);
+		input = included;
+	}
+
+	/**
+	 * Opens an included resource as a new input.
+	 */
+	private Input openInclude(String streamName, String path) throws IOException
+	{
+		DLIncludePrefetcher prefetcher = input.prefetcher;
+		if (prefetcher != null && prefetcher.contains(streamName, path))
+		{
+			Input out = prefetcher.take(streamName, path);
+			if (out != null)
+				attach(out, streamName, path);
+			return out;
+		}
+		
+		Input out = reader.openInclude(streamName, path);
+		if (out != null && prefetcher != null)
+			prefetcher.prefetch(out);
+		if (out != null)
+			attach(out, streamName, path);
+		return out;
+	}
+	
+	/**
+	 * Passes the current input's symbol table and include set on to an included input,
+	 * and adds its file to the include set.
+	 */
+	private void attach(Input out, String streamName, String path)
+	{
+		out.symbols = input.symbols;
+		out.includes = input.includes;
+		if (input.includes != null)
+		{
+			File f = reader.getIncludeFile(streamName, path);
+			if (f != null)
+				input.includes.add(f.toPath().toAbsolutePath().normalize());
+		}
+	}
+	
+	/**
+	 * Scans the rest of an input for include directives without lexing it,
+	 * and adds the included paths to a queue. Paths with escape sequences are skipped.
+	 * The input's position is not changed.
+	 */
+	static void findIncludes(Input input, Queue<String> out)
+	{
+		Input in = input.region(input.pos, input.limit, input.line);
+		int p = in.pos;
+		int limit = in.limit;
+		while (p < limit)
+		{
+			int c = in.at(p);
+			if (c == '"')
+			{
+				p = scanQuoted(in, p);
+			}
+			else if (c == '/' || c <= ' ')
+			{
+				// comments and whitespace
+				int e = skipWhitespace(in, p);
+				p = e == p ? p + 1 : e;
+			}
+			else if (c == '#')
+			{
+				p++;
+				int e = scanIdentifier(in, p);
+				if (e - p == DIRECTIVE_INCLUDE.length() && in.regionMatches(p, DIRECTIVE_INCLUDE))
+				{
+					p = skipWhitespace(in, e);
+					if (p < limit && in.at(p) == '"')
+					{
+						int end = scanQuoted(in, p);
+						if (end <= limit)
+						{
+							String path = in.substring(p + 1, end - 1);
+							if (path.indexOf('\\') < 0)
+								out.enqueue(path);
+						}
+						p = end;
+					}
+				}
+				else
+					p = e;
+			}
+			else
+				p++;
+		}
+	}
+
+	/**
+	 * Returns the stream name to give an included resource, so that its own includes
+	 * resolve relative to it.
+	 */
+	static String includeName(String streamName, String path)
+	{
+		if (path.startsWith(DLReader.CLASSPATH_PREFIX) || new File(path).isAbsolute())
+			return path;
+		int lidx = Math.max(streamName.lastIndexOf('/'), streamName.lastIndexOf('\\'));
+		return lidx >= 0 ? streamName.substring(0, lidx + 1) + path : path;
+	}
+
+	// Makes the next recorded token of an input the current one.
+	private void replayToken(Input in)
+	{
+		int[] tokens = in.tokens;
+		int i = in.token;
+		in.line = tokens[i + 3];
+		setToken((byte)tokens[i], in, tokens[i + 1], tokens[i + 2]);
+		tokenEscaped = (tokens[i] & TOKEN_ESCAPED) != 0;
+		in.pos = tokenStart + tokenLength + (type == TYPE_STRING || type == TYPE_INCLUDE ? 1 : 0);
+		in.token = i + TOKEN_SIZE;
+	}
+
+	private void setToken(int type, Input in, int start, int length)
+	{
+		this.type = type;
+		this.tokenInput = in;
+		this.tokenStart = start;
+		this.tokenLength = length;
+		this.tokenLine = in.line;
+		this.tokenEscaped = false;
+	}
+
+	// Returns how many offsets the character at an offset takes up.
+	private static int charLength(Input in, int p)
+	{
+		in.charAt(p);
+		return in.charLength;
+	}
+
+	private static boolean isDigit(int c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isIdentifierStart(int c)
+	{
+		if (c < 128)
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+		return Character.isLetter(c);
+	}
+
+	private static boolean isIdentifierPart(int c)
+	{
+		if (c < 128)
+			return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+		return Character.isLetterOrDigit(c);
+	}
+
+	/**
+	 * Resolves the escape sequences in a region of an input.
+	 */
+	private static String unescape(Input in, int start, int end)
+	{
+		String s = in.substring(start, end);
+		StringBuilder sb = new StringBuilder(s.length());
+		int p = 0;
+		end = s.length();
+		while (p < end)
+		{
+			char c = s.charAt(p++);
+			if (c != '\\' || p >= end)
+			{
+				sb.append(c);
+				continue;
+			}
+
+			c = s.charAt(p++);
+			switch (c)
+			{
+				case 'n':
+					sb.append('\n');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case '0':
+					sb.append('\0');
+					break;
+				case 'u':
+				{
+					if (p + 4 <= end)
+					{
+						int v = 0;
+						int i;
+						for (i = 0; i < 4; i++)
+						{
+							int d = Character.digit(s.charAt(p + i), 16);
+							if (d < 0)
+								break;
+							v = (v << 4) | d;
+						}
+						if (i == 4)
+						{
+							sb.append((char)v);
+							p += 4;
+							break;
+						}
+					}
+					sb.append('u');
+				}
+					break;
+				default:
+					sb.append(c);
+					break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A single lexer input: a named, random-access run of characters (in an array or a CharSequence),
+	 * or of UTF-8 bytes that are scanned without decoding them first.
+	 */
+	static final class Input
+	{
+		/** Input name. */
+		String name;
+		/** Character storage, or null if this is a byte or sequence input. */
+		char[] chars;
+		/** Byte storage, or null if this is a character or sequence input. */
+		ByteBuffer bytes;
+		/** Character sequence storage, or null if this is a character or byte input. */
+		CharSequence text;
+		/** Current offset. */
+		int pos;
+		/** End offset (exclusive). */
+		int limit;
+		/** Current line number. */
+		int line;
+		/** The number of offsets taken by the character last returned by {@link #charAt(int)}. */
+		int charLength;
+		/** Scratch space for decoding byte lexemes. */
+		private char[] scratch;
+		/** The prefetcher for this input's includes, or null. */
+		DLIncludePrefetcher prefetcher;
+		/** The symbol table for this input's identifiers, or null. */
+		DLSymbolTable symbols;
+		/** The set to add the files included by this input to, or null. */
+		Set<Path> includes;
+		/** The input's tokens, recorded by {@link DLLexer#tokenize(Input)}, or null to scan it. */
+		int[] tokens;
+		/** The offset of the next recorded token. */
+		int token;
+		/** The archetypes that the input declares, if that is all that it does, or null. */
+		DLArchetype[] archetypes;
+
+		Input(String name, char[] chars, int offset, int length)
+		{
+			reset(name, chars, offset, length);
+		}
+
+		Input(String name, ByteBuffer bytes, int offset, int length)
+		{
+			reset(name, bytes, offset, length);
+		}
+
+		Input(String name, CharSequence text, int offset, int length)
+		{
+			reset(name, text, offset, length);
+		}
+
+		/**
+		 * Points this input at new character storage, as though it was just created.
+		 */
+		void reset(String name, char[] chars, int offset, int length)
+		{
+			this.name = name;
+			this.chars = chars;
+			this.bytes = null;
+			this.text = null;
+			this.pos = offset;
+			this.limit = offset + length;
+			this.line = 1;
+			this.prefetcher = null;
+			this.includes = null;
+			this.tokens = null;
+			this.token = 0;
+			this.archetypes = null;
+			// skip byte order mark, as for bytes.
+			if (length > 0 && chars[offset] == '\uFEFF')
+				this.pos++;
+		}
+
+		/**
+		 * Points this input at new byte storage, as though it was just created.
+		 */
+		void reset(String name, ByteBuffer bytes, int offset, int length)
+		{
+			this.name = name;
+			this.chars = null;
+			this.bytes = bytes;
+			this.text = null;
+			this.pos = offset;
+			this.limit = offset + length;
+			this.line = 1;
+			this.prefetcher = null;
+			this.includes = null;
+			this.tokens = null;
+			this.token = 0;
+			this.archetypes = null;
+			// skip UTF-8 byte order mark.
+			if (length >= 3 && at(offset) == 0xEF && at(offset + 1) == 0xBB && at(offset + 2) == 0xBF)
+				this.pos += 3;
+		}
+
+		/**
+		 * Points this input at a new character sequence, as though it was just created.
+		 */
+		void reset(String name, CharSequence text, int offset, int length)
+		{
+			this.name = name;
+			this.chars = null;
+			this.bytes = null;
+			this.text = text;
+			this.pos = offset;
+			this.limit = offset + length;
+			this.line = 1;
+			this.prefetcher = null;
+			this.includes = null;
+			this.tokens = null;
+			this.token = 0;
+			this.archetypes = null;
+			// skip byte order mark, as for bytes.
+			if (length > 0 && text.charAt(offset) == '\uFEFF')
+				this.pos++;
+		}
+
+		/**
+		 * Returns a new input over a range of this one's storage, sharing it.
+		 * @param start the starting offset.
+		 * @param end the ending offset (exclusive).
+		 * @param line the line number at the starting offset.
+		 */
+		Input region(int start, int end, int line)
+		{
+			Input out;
+			if (chars != null)
+				out = new Input(name, chars, start, end - start);
+			else if (bytes != null)
+				out = new Input(name, bytes, start, end - start);
+			else
+				out = new Input(name, text, start, end - start);
+			out.pos = start;
+			out.line = line;
+			out.prefetcher = prefetcher;
+			out.symbols = symbols;
+			out.includes = includes;
+			return out;
+		}
+
+		/**
+		 * Returns a new input over the rest of this one, sharing its storage and its recorded tokens.
+		 */
+		Input copy()
+		{
+			Input out = region(pos, limit, line);
+			out.tokens = tokens;
+			out.token = token;
+			out.archetypes = archetypes;
+			return out;
+		}
+
+		/**
+		 * Wraps a buffer of UTF-8 (or ASCII) bytes, from its position to its limit.
+		 * The buffer is read in place, and its position is not changed.
+		 */
+		static Input wrap(String name, ByteBuffer bytes)
+		{
+			return new Input(name, bytes, bytes.position(), bytes.remaining());
+		}
+
+		/**
+		 * Wraps a buffer of bytes in a charset, from its position to its limit.
+		 * UTF-8 and ASCII buffers are read in place, and others are decoded once into a new input. 
+		 * Malformed bytes decode to the charset's replacement. The buffer's position is not changed.
+		 */
+		static Input wrap(String name, ByteBuffer bytes, Charset charset)
+		{
+			if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII))
+				return wrap(name, bytes);
+			
+			CharBuffer decoded = charset.decode(bytes.duplicate());
+			if (decoded.hasArray())
+				return new Input(name, decoded.array(), decoded.arrayOffset() + decoded.position(), decoded.remaining());
+			return new Input(name, decoded, decoded.position(), decoded.remaining());
+		}
+
+		/**
+		 * Drains a reader into a new input. Does not close the reader.
+		 * @throws IOException if the reader can't be read.
+		 */
+		static Input wrap(String name, Reader reader) throws IOException
+		{
+			char[] buf = new char[READ_BUFFER_SIZE];
+			int len = 0;
+			int n;
+			while ((n = reader.read(buf, len, buf.length - len)) >= 0)
+			{
+				len += n;
+				if (len == buf.length)
+				{
+					char[] nb = new char[buf.length * 2];
+					System.arraycopy(buf, 0, nb, 0, len);
+					buf = nb;
+				}
+			}
+			return new Input(name, buf, 0, len);
+		}
+
+		/**
+		 * Returns the character at an offset.
+		 */
+		int at(int index)
+		{
+			if (chars != null)
+				return chars[index];
+			if (bytes != null)
+				return bytes.get(index) & 0xff;
+			return text.charAt(index);
+		}
+
+		/**
+		 * Returns the character at an offset, decoding its UTF-8 sequence if this is a byte input,
+		 * so that bytes are classified the same way as the characters they stand for. 
+		 * Characters past the Basic Multilingual Plane are returned as their high surrogate, 
+		 * like a character input would, and malformed sequences as U+FFFD.
+		 * The number of offsets that the character takes up is left in {@link #charLength}.
+		 */
+		int charAt(int index)
+		{
+			charLength = 1;
+			if (bytes == null)
+				return at(index);
+			
+			int b = bytes.get(index) & 0xff;
+			int cp;
+			int extra;
+			if (b < 0x80)
+				return b;
+			else if ((b & 0xE0) == 0xC0)
+			{
+				cp = b & 0x1F;
+				extra = 1;
+			}
+			else if ((b & 0xF0) == 0xE0)
+			{
+				cp = b & 0x0F;
+				extra = 2;
+			}
+			else if ((b & 0xF8) == 0xF0)
+			{
+				cp = b & 0x07;
+				extra = 3;
+			}
+			else
+				return '\uFFFD';
+			
+			for (int i = 1; i <= extra; i++)
+			{
+				int c;
+				if (index + i >= limit || ((c = bytes.get(index + i) & 0xff) & 0xC0) != 0x80)
+				{
+					charLength = i;
+					return '\uFFFD';
+				}
+				cp = (cp << 6) | (c & 0x3F);
+			}
+			charLength = extra + 1;
+			return cp >= 0x10000 ? Character.highSurrogate(cp) : cp;
+		}
+
+		/**
+		 * Returns a region of this input as a String.
+		 */
+		String substring(int start, int end)
+		{
+			if (chars != null)
+				return new String(chars, start, end - start);
+			if (text != null)
+				return text.subSequence(start, end).toString();
+
+			int len = end - start;
+			if (scratch == null || scratch.length < len)
+				scratch = new char[Math.max(len, 64)];
+
+			// ASCII fast path.
+			int p = start;
+			int n = 0;
+			int b;
+			while (p < end && (b = bytes.get(p)) >= 0)
+			{
+				scratch[n++] = (char)b;
+				p++;
+			}
+			if (p == end)
+				return new String(scratch, 0, n);
+			
+			return new String(scratch, 0, decodeUTF8(p, end, n));
+		}
+
+		/**
+		 * Decodes UTF-8 bytes into the scratch buffer.
+		 * Malformed sequences decode to U+FFFD.
+		 * @return the new length of the decoded characters in scratch.
+		 */
+		private int decodeUTF8(int p, int end, int n)
+		{
+			while (p < end)
+			{
+				int b = bytes.get(p++) & 0xff;
+				int cp;
+				int extra;
+				if (b < 0x80)
+				{
+					scratch[n++] = (char)b;
+					continue;
+				}
+				else if ((b & 0xE0) == 0xC0)
+				{
+					cp = b & 0x1F;
+					extra = 1;
+				}
+				else if ((b & 0xF0) == 0xE0)
+				{
+					cp = b & 0x0F;
+					extra = 2;
+				}
+				else if ((b & 0xF8) == 0xF0)
+				{
+					cp = b & 0x07;
+					extra = 3;
+				}
+				else
+				{
+					scratch[n++] = '\uFFFD';
+					continue;
+				}
+
+				int i;
+				for (i = 0; i < extra && p < end; i++)
+				{
+					int c = bytes.get(p) & 0xff;
+					if ((c & 0xC0) != 0x80)
+						break;
+					cp = (cp << 6) | (c & 0x3F);
+					p++;
+				}
+
+				if (i < extra)
+					scratch[n++] = '\uFFFD';
+				else if (cp >= 0x10000)
+				{
+					scratch[n++] = Character.highSurrogate(cp);
+					scratch[n++] = Character.lowSurrogate(cp);
+				}
+				else
+					scratch[n++] = (char)cp;
+			}
+			return n;
+		}
+
+		/**
+		 * Returns true if a region of this input equals a String.
+		 */
+		boolean regionMatches(int start, String s)
+		{
+			if (start + s.length() > limit)
+				return false;
+			for (int i = 0; i < s.length(); i++)
+				if (at(start + i) != s.charAt(i))
+					return false;
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable reader for reading many small sources, like messages, from memory.
+ * Created through {@link DLReader#createMessageReader()}.
+ * <p>
+ * Each source is read by resetting this onto it, then calling one of the reading methods.
+ * The lexer, parser, stacks, and buffers made for the first source are kept and reused
+ * for every source after it, so that setting up each read allocates nothing. Buffers grown 
+ * for an unusually large source are given up again when the next source doesn't need them.
+ * Character sources are copied into a reused buffer, and byte sources are lexed in place as UTF-8,
+ * and no reference to either is kept once they are read.
+ * Struct types and field names are interned with the creating reader's symbol table,
+ * or, if it has none, with one owned by this. The owned table is cleared whenever it grows past
+ * {@link #MAX_OWNED_SYMBOLS} names, so sources with ever-changing names don't grow it without bound.
+ * </p>
+ * <p>
+ * This uses the projection, inheritance mode and archetype registry of the creating reader as they were 
+ * when this was created, and never reads lazily or in parallel. Archetypes declared in one source are 
+ * not usable in the next, unless they are added to an archetype registry.
+ * This is not safe to use from multiple threads - keep one per thread instead.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ */
+public final class DLMessageReader
+{
+	/** Default source name. */
+	public static final String DEFAULT_NAME = "message";
+	/** The most names that an owned symbol table keeps before it is cleared. */
+	public static final int MAX_OWNED_SYMBOLS = 4096;
+	/** Starting size of the character buffer. */
+	private static final int DEFAULT_TEXT_LENGTH = 512;
+	/** Largest character buffer kept for sources that don't need it. */
+	private static final int MAX_KEPT_TEXT_LENGTH = 65536;
+
+	/** The reader that resolves includes. */
+	private DLReader reader;
+	/** The name of the sources read, for error messages. */
+	private String name;
+	/** Symbol table for interning names. */
+	private DLSymbolTable symbols;
+	/** True if the symbol table was made for this, and can be cleared. */
+	private boolean ownsSymbols;
+	/** The reused input. */
+	private DLLexer.Input input;
+	/** Buffer that character sources are copied into. */
+	private char[] text;
+	/** The reused lexer. */
+	private DLLexer lexer;
+	/** The reused struct builder. */
+	private DLStructBuilder builder;
+	/** The reused parser. */
+	private DLReader.DLParser parser;
+	/** True if the current source has not been read yet. */
+	private boolean ready;
+
+	/**
+	 * Creates a new message reader.
+	 * @param reader the reader that resolves includes.
+	 * @param symbols the symbol table to intern names with, or null to make one.
+	 */
+	DLMessageReader(DLReader reader, DLSymbolTable symbols)
+	{
+		this.reader = reader;
+		this.name = DEFAULT_NAME;
+		this.symbols = symbols != null ? symbols : new DLSymbolTable();
+		this.ownsSymbols = symbols == null;
+		this.text = new char[DEFAULT_TEXT_LENGTH];
+		this.input = new DLLexer.Input(name, text, 0, 0);
+		this.lexer = new DLLexer(reader, input);
+		this.builder = reader.createBuilder(new DLStruct());
+		this.parser = reader.createParser(builder, lexer);
+		this.ready = false;
+	}
+
+	/**
+	 * Sets the name that sources read after this are given in error messages.
+	 * It is also the name that included paths are resolved against.
+	 * @param name the name to use, or null to use {@link #DEFAULT_NAME}.
+	 */
+	public void setName(String name)
+	{
+		this.name = name != null ? name : DEFAULT_NAME;
+	}
+
+	/**
+	 * Returns the name that sources read are given in error messages.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Resets this onto a new character source.
+	 * The characters are copied, so the source can be changed after this returns.
+	 * @param source the source to read next.
+	 * @return this reader.
+	 * @throws NullPointerException if source is null.
+	 */
+	public DLMessageReader reset(CharSequence source)
+	{
+		int length = source.length();
+		if (text.length < length)
+			text = new char[Math.max(length, text.length * 2)];
+		else if (text.length > MAX_KEPT_TEXT_LENGTH && length <= MAX_KEPT_TEXT_LENGTH)
+			text = new char[Math.max(length, DEFAULT_TEXT_LENGTH)];
+
+		if (source instanceof String)
+			((String)source).getChars(0, length, text, 0);
+		else if (source instanceof StringBuilder)
+			((StringBuilder)source).getChars(0, length, text, 0);
+		else if (source instanceof StringBuffer)
+			((StringBuffer)source).getChars(0, length, text, 0);
+		else for (int i = 0; i < length; i++)
+			text[i] = source.charAt(i);
+
+		input.reset(name, text, 0, length);
+		return start();
+	}
+
+	/**
+	 * Resets this onto a new source of UTF-8 (or ASCII) bytes, from the buffer's position to its limit.
+	 * The buffer is read in place, and its position is not changed, so it must not be
+	 * changed until the source is read. This lets go of it once the source is read.
+	 * @param source the source to read next.
+	 * @return this reader.
+	 * @throws NullPointerException if source is null.
+	 */
+	public DLMessageReader reset(ByteBuffer source)
+	{
+		input.reset(name, source, source.position(), source.remaining());
+		return start();
+	}
+
+	/**
+	 * Reads the current source into a new struct.
+	 * @return A new DLStruct that represents what was read.
+	 * @throws DLParseException if the source contains a parse error.
+	 * @throws IllegalStateException if this was not reset onto a new source since the last read.
+	 */
+	public DLStruct read()
+	{
+		DLStruct out = new DLStruct();
+		apply(out);
+		return out;
+	}
+
+	/**
+	 * Reads the current source into an existing struct.
+	 * @param dlst the table to apply the info to.
+	 * @throws DLParseException if the source contains a parse error.
+	 * @throws IllegalStateException if this was not reset onto a new source since the last read.
+	 * @throws NullPointerException if dlst is null.
+	 */
+	public void apply(DLStruct dlst)
+	{
+		if (dlst == null)
+			throw new NullPointerException("dlst");
+		builder.reset(dlst);
+		parse(builder);
+	}
+
+	/**
+	 * Reads the current source, reporting what is read to an event handler
+	 * instead of building a {@link DLStruct}.
+	 * @param handler the handler to report to.
+	 * @throws DLParseException if the source contains a parse error.
+	 * @throws IllegalStateException if this was not reset onto a new source since the last read.
+	 * @throws NullPointerException if handler is null.
+	 */
+	public void parse(DLEventHandler handler)
+	{
+		if (handler == null)
+			throw new NullPointerException("handler");
+		if (!ready)
+			throw new IllegalStateException("No source to read - call reset() first.");
+
+		ready = false;
+		parser.reset(handler);
+		try {
+			parser.read();
+		} finally {
+			// don't keep the source, or included inputs, around until the next one.
+			input.reset(name, text, 0, 0);
+			lexer.reset(input);
+			parser.trim();
+		}
+	}
+
+	/**
+	 * Readies the reset input for reading.
+	 */
+	private DLMessageReader start()
+	{
+		if (ownsSymbols && symbols.size() > MAX_OWNED_SYMBOLS)
+			symbols.clear();
+		input.symbols = symbols;
+		reader.prepare(input);
+		lexer.reset(input);
+		ready = true;
+		return this;
+	}
+
+}
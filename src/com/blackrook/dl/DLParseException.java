@@ -20,4 +20,9 @@ public class DLParseException extends RuntimeException
 	{
 		super(s);
 	}
+
+	public DLParseException(String s, Throwable cause)
+	{
+		super(s, cause);
+	}
 }
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+/**
+ * A compiled set of projection path patterns, used by {@link DLReader} to decide
+ * which structures and fields to read.
+ * <p>
+ * A path is the list of structure types leading to a structure or field, followed by its name, 
+ * separated by <code>/</code>, like <code>server/http/port</code>. A <code>*</code> segment matches 
+ * any single type or name.
+ * </p>
+ * @author Matthew Tropiano
+ */
+final class DLProjection
+{
+	/** Match result: nothing under this path is read. */
+	static final int SKIP = 0;
+	/** Match result: this path leads to something that is read, but is not read entirely itself. */
+	static final int CONTAINER = 1;
+	/** Match result: this path and everything under it is read. */
+	static final int SELECTED = 2;
+
+	/** Wildcard segment. */
+	private static final String WILDCARD = "*";
+
+	/** The source patterns. */
+	private final String[] source;
+	/** The split patterns. */
+	private final String[][] patterns;
+	
+	/**
+	 * Compiles a set of patterns.
+	 * @param patterns the patterns to compile.
+	 * @throws IllegalArgumentException if a pattern is empty or has an empty segment.
+	 */
+	DLProjection(String... patterns)
+	{
+		this.source = patterns.clone();
+		this.patterns = new String[patterns.length][];
+		for (int i = 0; i < patterns.length; i++)
+		{
+			String p = patterns[i];
+			if (p.startsWith("/"))
+				p = p.substring(1);
+			String[] segments = p.split("/", -1);
+			for (int j = 0; j < segments.length; j++)
+			{
+				if (segments[j].trim().length() == 0)
+					throw new IllegalArgumentException("Projection pattern \"" + patterns[i] + "\" has an empty segment.");
+				if (segments[j].equals(WILDCARD))
+					segments[j] = WILDCARD;
+			}
+			this.patterns[i] = segments;
+		}
+	}
+	
+	/**
+	 * Returns the patterns that this was compiled from.
+	 */
+	String[] getPatterns()
+	{
+		return source.clone();
+	}
+	
+	/**
+	 * Matches a path against the patterns.
+	 * @param path the path segments.
+	 * @param length the amount of segments in the path to use.
+	 * @return {@link #SELECTED}, {@link #CONTAINER} or {@link #SKIP}.
+	 */
+	int match(String[] path, int length)
+	{
+		int out = SKIP;
+		for (String[] pattern : patterns)
+		{
+			int n = Math.min(length, pattern.length);
+			int i;
+			for (i = 0; i < n; i++)
+				if (pattern[i] != WILDCARD && !pattern[i].equals(path[i]))
+					break;
+			if (i < n)
+				continue;
+			if (pattern.length <= length)
+				return SELECTED;
+			out = CONTAINER;
+		}
+		return out;
+	}
+	
+}
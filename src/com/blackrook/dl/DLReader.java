@@ -8,15 +8,43 @@
 package com.blackrook.dl;
 
 import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import com.blackrook.commons.Common;
+import com.blackrook.commons.ObjectPair;
 import com.blackrook.commons.hash.HashMap;
 import com.blackrook.commons.linkedlist.Queue;
 import com.blackrook.commons.linkedlist.Stack;
-import com.blackrook.lang.CommonLexer;
-import com.blackrook.lang.CommonLexerKernel;
-import com.blackrook.lang.Lexer;
-import com.blackrook.lang.Parser;
 
 /**
  * Reads an ASCII file or stream and creates a DLStructTable out of it.
@@ -24,12 +52,322 @@ import com.blackrook.lang.Parser;
  */
 public class DLReader
 {
-	private static final String CLASSPATH_PREFIX = "classpath:";
+	static final String CLASSPATH_PREFIX = "classpath:";
+	/** 
+	 * The stream name given to sources read from memory without one, in error messages.
+	 * Paths that they include are resolved against the working directory.
+	 * @since 2.6.0
+	 */
+	public static final String TEXT_STREAM_NAME = "text";
+	/** Files smaller than this are read onto the heap instead of being memory-mapped. */
+	private static final int MAP_THRESHOLD = 64 * 1024;
+	/** Sources smaller than this are always read on the calling thread. */
+	private static final int PARALLEL_THRESHOLD = 256 * 1024;
+	/** The smallest amount of source that is read in parallel as one piece. */
+	private static final int PARALLEL_CHUNK_SIZE = 64 * 1024;
+	/** How many pieces to split a source into, per thread. */
+	private static final int PARALLEL_CHUNKS_PER_THREAD = 4;
 
+	/** Projection patterns, or null to read everything. */
+	private DLProjection projection;
+	/** If true, struct bodies are read when they are first accessed. */
+	private boolean lazy;
+	/** If true, inheriting structs refer to what they inherit instead of copying it. */
+	private boolean prototypes;
+	/** The pool to read in parallel on, or null to read on the calling thread. */
+	private ForkJoinPool parallelPool;
+	/** The executor to load includes ahead of time on, or null to load them when reached. */
+	private Executor includeExecutor;
+	/** The cache of included resources, or null. */
+	private DLIncludeCache includeCache;
+	/** The symbol table shared by every read, or null for one per read. */
+	private DLSymbolTable symbolTable;
+	/** Executor for asynchronous reads. */
+	private Executor asyncExecutor;
+	/** The archetypes shared by every read, or null. */
+	private DLArchetypeRegistry archetypeRegistry;
+	
 	/** Creates a new reader. */
 	public DLReader()
 	{
-		
+		projection = null;
+		lazy = false;
+		prototypes = false;
+		parallelPool = null;
+		includeExecutor = null;
+		includeCache = null;
+		symbolTable = null;
+		asyncExecutor = null;
+		archetypeRegistry = null;
+	}
+	
+	/**
+	 * Sets the executor that this reader runs asynchronous reads on.
+	 * By default, this is a shared executor that starts a virtual thread for each read 
+	 * on runtimes that have them, or a shared pool of daemon threads on runtimes that don't.
+	 * Reads block on I/O without holding any monitors, so they do not pin virtual threads to their carriers.
+	 * @param executor the executor to use, or null to use the default one.
+	 * @see #readAsync(Path)
+	 * @see #readAll(Collection)
+	 * @since 2.6.0
+	 */
+	public void setAsyncExecutor(Executor executor)
+	{
+		this.asyncExecutor = executor;
+	}
+	
+	/**
+	 * Returns the executor that this reader runs asynchronous reads on.
+	 * @see #setAsyncExecutor(Executor)
+	 * @since 2.6.0
+	 */
+	public Executor getAsyncExecutor()
+	{
+		return asyncExecutor != null ? asyncExecutor : DefaultExecutor.INSTANCE;
+	}
+	
+	/**
+	 * Sets the symbol table that this reader interns struct types and field names with.
+	 * By default, each read interns names with a new table, so that every name read
+	 * is only kept once per read. Setting a table shares names across reads, 
+	 * which helps when many sources with the same names are kept in memory.
+	 * A table can be shared by many readers.
+	 * @param table the table to use, or null to use a new one for each read.
+	 * @since 2.6.0
+	 */
+	public void setSymbolTable(DLSymbolTable table)
+	{
+		this.symbolTable = table;
+	}
+	
+	/**
+	 * Returns the symbol table that this reader shares across reads, or null if it uses one per read.
+	 * @see #setSymbolTable(DLSymbolTable)
+	 * @since 2.6.0
+	 */
+	public DLSymbolTable getSymbolTable()
+	{
+		return symbolTable;
+	}
+	
+	/**
+	 * Sets the registry of archetypes that this reader shares across reads.
+	 * Sources read by this reader can use the archetypes in the registry without declaring them, 
+	 * and archetypes that they declare are added to it. A registry can be shared by many readers.
+	 * @param registry the registry to use, or null to only use the archetypes declared in each source.
+	 * @see DLArchetypeRegistry
+	 * @since 2.6.0
+	 */
+	public void setArchetypeRegistry(DLArchetypeRegistry registry)
+	{
+		this.archetypeRegistry = registry;
+	}
+	
+	/**
+	 * Returns the registry of archetypes that this reader shares across reads, or null if it does not use one.
+	 * @see #setArchetypeRegistry(DLArchetypeRegistry)
+	 * @since 2.6.0
+	 */
+	public DLArchetypeRegistry getArchetypeRegistry()
+	{
+		return archetypeRegistry;
+	}
+	
+	/**
+	 * Sets the cache that this reader keeps included resources in.
+	 * A cache can be shared by many readers, so that resources included by many sources, 
+	 * like common archetype libraries, are only read, decoded, and lexed once.
+	 * @param cache the cache to use, or null to read included resources every time.
+	 * @see #getIncludeKey(String, String)
+	 * @since 2.6.0
+	 */
+	public void setIncludeCache(DLIncludeCache cache)
+	{
+		this.includeCache = cache;
+	}
+	
+	/**
+	 * Returns the cache that this reader keeps included resources in, or null if it does not use one.
+	 * @see #setIncludeCache(DLIncludeCache)
+	 * @since 2.6.0
+	 */
+	public DLIncludeCache getIncludeCache()
+	{
+		return includeCache;
+	}
+	
+	/**
+	 * Sets the executor that this reader loads included resources on ahead of time.
+	 * <p>
+	 * When set, each source is scanned for <code>#include</code> directives before it is read, 
+	 * and every resource that it includes is opened and read into memory on the executor, 
+	 * along with everything that those include in turn. The reader then splices each one in when it 
+	 * reaches its directive, waiting only for ones that have not finished loading yet.
+	 * Resources are still lexed and parsed in order by the reading thread, so the result is the same,
+	 * but the time spent opening and reading many includes, such as from slow disks, is overlapped.
+	 * </p>
+	 * <p>
+	 * Resources are opened through {@link #getIncludeResource(String, String)}, which is then called 
+	 * from the executor's threads. Included paths that contain escape sequences, or that are not 
+	 * found by the scan, are loaded when they are reached.
+	 * </p>
+	 * @param executor the executor to use, or null to load included resources when they are reached.
+	 * @since 2.6.0
+	 */
+	public void setIncludeExecutor(Executor executor)
+	{
+		this.includeExecutor = executor;
+	}
+	
+	/**
+	 * Returns the executor that this reader loads included resources on ahead of time, or null if it does not.
+	 * @see #setIncludeExecutor(Executor)
+	 * @since 2.6.0
+	 */
+	public Executor getIncludeExecutor()
+	{
+		return includeExecutor;
+	}
+	
+	/**
+	 * Sets the pool that this reader reads large sources on in parallel.
+	 * <p>
+	 * When set, the <code>read()</code> and <code>apply()</code> methods split large sources at 
+	 * top-level statement boundaries with a quick raw scan, read runs of independent top-level 
+	 * structs and fields on the pool into separate trees, and add those to the target struct in source order.
+	 * Archetype declarations are read in order, and each run uses the archetypes declared before it.
+	 * Top-level statements that inherit from other structs, and top-level includes, are read on 
+	 * the calling thread after everything before them has been added, so that they see what they would
+	 * if the source was read on one thread.
+	 * </p>
+	 * <p>
+	 * If a source has a parse error, the error from the earliest failing run is thrown, and only
+	 * the runs before it are added. This has no effect on lazy reads, or the <code>parse()</code> 
+	 * or <code>createStreamReader()</code> methods.
+	 * </p>
+	 * @param pool the pool to use, or null to read on the calling thread.
+	 * @see ForkJoinPool#commonPool()
+	 * @since 2.6.0
+	 */
+	public void setParallelPool(ForkJoinPool pool)
+	{
+		this.parallelPool = pool;
+	}
+	
+	/**
+	 * Returns the pool that this reader reads large sources on in parallel, or null if it does not.
+	 * @see #setParallelPool(ForkJoinPool)
+	 * @since 2.6.0
+	 */
+	public ForkJoinPool getParallelPool()
+	{
+		return parallelPool;
+	}
+	
+	/**
+	 * Sets whether this reader reads structs lazily.
+	 * <p>
+	 * When reading lazily, the <code>read()</code> and <code>apply()</code> methods only read the top level
+	 * of the source. The body of each struct is found by brace-matching the raw source, without lexing it,
+	 * and is read the first time that the struct's fields or child structs are accessed 
+	 * (which, in turn, only defers the bodies of its own children). The struct values and anything 
+	 * inherited or set by archetypes are read right away. The returned structs keep a reference 
+	 * to the source until all of their bodies have been read.
+	 * </p>
+	 * <p>
+	 * Parse errors and unreadable includes inside a deferred body are thrown as {@link DLParseException}s
+	 * from whichever struct method first reads it. Structs that are read lazily are not safe to access 
+	 * from multiple threads, even if they are not modified, until they are loaded
+	 * (see {@link DLStruct#isLoaded()}). Archetypes declared anywhere in a source are usable inside
+	 * any of its deferred bodies. A struct body must start and end in the same file.
+	 * </p>
+	 * <p>
+	 * This has no effect on the <code>parse()</code> or <code>createStreamReader()</code> methods.
+	 * </p>
+	 * @param lazy true to read lazily, false to read everything right away.
+	 * @since 2.6.0
+	 */
+	public void setLazy(boolean lazy)
+	{
+		this.lazy = lazy;
+	}
+	
+	/**
+	 * Returns true if this reader reads structs lazily.
+	 * @see #setLazy(boolean)
+	 * @since 2.6.0
+	 */
+	public boolean isLazy()
+	{
+		return lazy;
+	}
+	
+	/**
+	 * Sets whether structs read by this reader inherit by prototype instead of by copy.
+	 * <p>
+	 * By default, a struct that inherits from another (<code>: type value</code>) gets a deep copy
+	 * of its fields and structs. With prototype inheritance, a struct that inherits from only one
+	 * other struct, before anything else is added to it, keeps a reference to it instead,
+	 * and looks up whatever it does not have itself in it (see {@link DLStruct#getPrototype()}).
+	 * Many structs inheriting from one large template then share its contents instead of each holding a copy.
+	 * </p>
+	 * <p>
+	 * A prototype is not copied, so changes made to it after it is inherited from are seen through 
+	 * every struct that inherits from it. Call {@link DLStruct#flatten()} for a standalone copy.
+	 * </p>
+	 * <p>
+	 * This has no effect on the <code>parse()</code> or <code>createStreamReader()</code> methods.
+	 * </p>
+	 * @param prototypes true to inherit by prototype, false to inherit by copy.
+	 * @since 2.6.0
+	 */
+	public void setPrototypeInheritance(boolean prototypes)
+	{
+		this.prototypes = prototypes;
+	}
+	
+	/**
+	 * Returns true if structs read by this reader inherit by prototype.
+	 * @see #setPrototypeInheritance(boolean)
+	 * @since 2.6.0
+	 */
+	public boolean isPrototypeInheritance()
+	{
+		return prototypes;
+	}
+	
+	/**
+	 * Sets the path patterns that limit what this reader reads.
+	 * <p>
+	 * A path is the list of structure types leading to a structure or field, followed by its name, 
+	 * separated by <code>/</code>. A <code>*</code> segment matches any single type or name.
+	 * For example, <code>server/&#42;/port</code> reads the <code>port</code> fields of every structure
+	 * directly inside each <code>server</code> structure, and <code>items/item</code> reads every 
+	 * <code>item</code> structure inside <code>items</code>, and everything in them.
+	 * </p>
+	 * <p>
+	 * Structures that lead to a match are read with their values, but only with the fields 
+	 * and structures that match. Everything else is skipped at the token level, without building values. 
+	 * Archetype declarations are always read. A read structure that inherits from a skipped one 
+	 * will fail to find it, so patterns should include any structures that are inherited from.
+	 * </p>
+	 * @param patterns the patterns to use, or null or none to read everything.
+	 * @throws IllegalArgumentException if a pattern is empty or has an empty segment.
+	 * @since 2.6.0
+	 */
+	public void setProjection(String ... patterns)
+	{
+		projection = patterns == null || patterns.length == 0 ? null : new DLProjection(patterns);
+	}
+	
+	/**
+	 * Returns the path patterns that limit what this reader reads, or null if this reads everything.
+	 * @see #setProjection(String...)
+	 * @since 2.6.0
+	 */
+	public String[] getProjection()
+	{
+		return projection != null ? projection.getPatterns() : null;
 	}
 	
 	/**
@@ -42,7 +380,26 @@ public class DLReader
 	 */
 	public DLStruct read(File f) throws IOException
 	{
-		return read(f.getPath(),new FileInputStream(f));
+		DLStruct out = new DLStruct();
+		apply(f, out);
+		return out;
+	}
+	
+	/**
+	 * Reads in a database from a file, memory-mapping it if it is large enough.
+	 * The file is lexed directly from its bytes, which are expected to be UTF-8 (or ASCII).
+	 * Note: Calls apply() with a new table.
+	 * @param path the path to the file to read from.
+	 * @return A new DLStruct that represents the new database.
+	 * @throws IOException if the file can't be read or mapped.
+	 * @throws NullPointerException if path is null. 
+	 * @since 2.6.0
+	 */
+	public DLStruct read(Path path) throws IOException
+	{
+		DLStruct out = new DLStruct();
+		apply(path, out);
+		return out;
 	}
 	
 	/**
@@ -61,6 +418,242 @@ public class DLReader
 		return out;
 	}
 	
+	/**
+	 * Reads in a database from a InputStream, decoding it with a specific charset.
+	 * Note: Calls apply() with a new table.
+	 * @param streamName the name of the stream.
+	 * @param in the stream to read from.
+	 * @param charset the charset to decode the stream with.
+	 * @return A new DLStruct that represents the new database.
+	 * @throws IOException if the stream can't be read.
+	 * @throws NullPointerException if in or charset is null. 
+	 * @since 2.6.0
+	 */
+	public DLStruct read(String streamName, InputStream in, Charset charset) throws IOException
+	{
+		DLStruct out = new DLStruct();
+		apply(streamName, in, charset, out);
+		return out;
+	}
+	
+	/**
+	 * Reads in a database from a file, decoding it with a specific charset.
+	 * UTF-8 and ASCII files are memory-mapped and lexed in place, as by {@link #read(Path)}.
+	 * Note: Calls apply() with a new table.
+	 * @param path the path to the file to read from.
+	 * @param charset the charset to decode the file with.
+	 * @return A new DLStruct that represents the new database.
+	 * @throws IOException if the file can't be read or mapped.
+	 * @throws NullPointerException if path or charset is null. 
+	 * @since 2.6.0
+	 */
+	public DLStruct read(Path path, Charset charset) throws IOException
+	{
+		DLStruct out = new DLStruct();
+		apply(path, charset, out);
+		return out;
+	}
+	
+	/**
+	 * Reads in a database from text in memory, without copying it.
+	 * The text must not change until the read returns, 
+	 * or, if this reads lazily, until every struct read is loaded.
+	 * Note: Calls apply() with a new table.
+	 * @param text the text to read.
+	 * @return A new DLStruct that represents the new database.
+	 * @throws DLParseException if the text contains a parse error.
+	 * @throws NullPointerException if text is null. 
+	 * @see #TEXT_STREAM_NAME
+	 * @since 2.6.0
+	 */
+	public DLStruct read(CharSequence text)
+	{
+		DLStruct out = new DLStruct();
+		apply(TEXT_STREAM_NAME, text, out);
+		return out;
+	}
+	
+	/**
+	 * Reads in a database from a range of a character array, without copying it.
+	 * The characters must not change until the read returns, 
+	 * or, if this reads lazily, until every struct read is loaded.
+	 * Note: Calls apply() with a new table.
+	 * @param chars the array to read from.
+	 * @param offset the offset into the array of the first character to read.
+	 * @param length the number of characters to read.
+	 * @return A new DLStruct that represents the new database.
+	 * @throws DLParseException if the characters contain a parse error.
+	 * @throws IndexOutOfBoundsException if the range is outside of the array.
+	 * @throws NullPointerException if chars is null. 
+	 * @see #TEXT_STREAM_NAME
+	 * @since 2.6.0
+	 */
+	public DLStruct read(char[] chars, int offset, int length)
+	{
+		DLStruct out = new DLStruct();
+		apply(TEXT_STREAM_NAME, chars, offset, length, out);
+		return out;
+	}
+	
+	/**
+	 * Reads in a database from a buffer of bytes, from its position to its limit.
+	 * UTF-8 and ASCII bytes are lexed in place, without decoding or copying them, 
+	 * and other charsets are decoded once. The buffer's position is not changed.
+	 * Bytes read in place must not change until the read returns, 
+	 * or, if this reads lazily, until every struct read is loaded.
+	 * Note: Calls apply() with a new table.
+	 * @param bytes the buffer to read from.
+	 * @param charset the charset of the bytes.
+	 * @return A new DLStruct that represents the new database.
+	 * @throws DLParseException if the bytes contain a parse error.
+	 * @throws NullPointerException if bytes or charset is null. 
+	 * @see #TEXT_STREAM_NAME
+	 * @since 2.6.0
+	 */
+	public DLStruct read(ByteBuffer bytes, Charset charset)
+	{
+		DLStruct out = new DLStruct();
+		apply(TEXT_STREAM_NAME, bytes, charset, out);
+		return out;
+	}
+	
+	/**
+	 * Reads in a database from a file on this reader's asynchronous executor, as by {@link #read(Path)}.
+	 * The settings of this reader must not be changed until the read completes.
+	 * @param path the path to the file to read from.
+	 * @return a future that completes with a new DLStruct that represents the new database, 
+	 * 		or completes exceptionally with the {@link IOException} or {@link DLParseException} that the read threw.
+	 * @throws NullPointerException if path is null. 
+	 * @see #setAsyncExecutor(Executor)
+	 * @since 2.6.0
+	 */
+	public CompletableFuture<DLStruct> readAsync(final Path path)
+	{
+		if (path == null)
+			throw new NullPointerException("path");
+		
+		final CompletableFuture<DLStruct> out = new CompletableFuture<DLStruct>();
+		getAsyncExecutor().execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try {
+					out.complete(read(path));
+				} catch (Throwable t) {
+					out.completeExceptionally(t);
+				}
+			}
+		});
+		return out;
+	}
+	
+	/**
+	 * Reads in many files at once on this reader's asynchronous executor, and 
+	 * combines them into one database. Each file is read on its own, as by {@link #read(Path)},
+	 * so archetypes declared in one file are not usable in the others, and structs in one
+	 * file can't inherit from structs in the others. The fields and structs read from each 
+	 * file are added in the collection's iteration order, so later files overwrite
+	 * the fields of earlier ones.
+	 * The settings of this reader must not be changed until the read completes.
+	 * @param paths the paths to the files to read from.
+	 * @return a future that completes with a new DLStruct that represents the combined database, 
+	 * 		or completes exceptionally with the exception that the first failing read threw.
+	 * @throws NullPointerException if paths or one of its paths is null. 
+	 * @see #setAsyncExecutor(Executor)
+	 * @since 2.6.0
+	 */
+	public CompletableFuture<DLStruct> readAll(Collection<Path> paths)
+	{
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		final CompletableFuture<DLStruct>[] reads = new CompletableFuture[paths.size()];
+		int i = 0;
+		for (Path path : paths)
+			reads[i++] = readAsync(path);
+		
+		return CompletableFuture.allOf(reads).thenApply(new Function<Void, DLStruct>()
+		{
+			@Override
+			public DLStruct apply(Void v)
+			{
+				DLStruct out = new DLStruct();
+				for (CompletableFuture<DLStruct> read : reads)
+					out.splice(read.join());
+				return out;
+			}
+		});
+	}
+	
+	/**
+	 * Reads every file in a directory tree whose path matches a glob pattern, 
+	 * and adds them to a table in path order.
+	 * <p>
+	 * The files are read at the same time on this reader's asynchronous executor, each into
+	 * its own table, as by {@link #read(Path)}. Each file's fields and structs are then moved into 
+	 * the target table (without copying them) in order of their paths, as each finishes,
+	 * so later files overwrite the fields of earlier ones. Archetypes declared in one file are not 
+	 * usable in the others, and structs in one file can't inherit from structs in the others.
+	 * </p>
+	 * <p>
+	 * If a file can't be read, the files before it in path order have been added, 
+	 * the reads after it are cancelled, and its exception is thrown.
+	 * The settings of this reader must not be changed until this returns.
+	 * </p>
+	 * @param root the root directory to search.
+	 * @param glob the glob pattern that file paths must match, relative to the root, 
+	 * 		like <code>**.dl</code> for every <code>.dl</code> file in the tree. See {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+	 * @param dlst the table to add to.
+	 * @return a report of the files read, and how long each took.
+	 * @throws IOException if the tree can't be searched or a file can't be read.
+	 * @throws DLParseException if a file contains a parse error.
+	 * @throws NullPointerException if any object is null. 
+	 * @see #setAsyncExecutor(Executor)
+	 * @since 2.6.0
+	 */
+	public DLTreeReport applyTree(final Path root, String glob, DLStruct dlst) throws IOException
+	{
+		long start = System.nanoTime();
+		final PathMatcher matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+		final List<Path> found = new ArrayList<Path>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+			{
+				if (attrs.isRegularFile() && matcher.matches(root.relativize(file)))
+					found.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(found);
+		
+		Path[] paths = found.toArray(new Path[found.size()]);
+		DLTreeReport report = new DLTreeReport(root, paths);
+		TreeRead[] reads = new TreeRead[paths.length];
+		Executor executor = getAsyncExecutor();
+		for (int i = 0; i < paths.length; i++)
+		{
+			reads[i] = new TreeRead(paths[i]);
+			executor.execute(reads[i].task);
+		}
+		
+		try {
+			for (int i = 0; i < reads.length; i++)
+			{
+				DLStruct result = join(reads[i].task);
+				long mergeStart = System.nanoTime();
+				dlst.splice(result);
+				report.set(i, reads[i].nanos, System.nanoTime() - mergeStart);
+			}
+		} finally {
+			for (TreeRead read : reads)
+				read.task.cancel(false);
+		}
+		
+		report.setTotalNanos(System.nanoTime() - start);
+		return report;
+	}
+	
 	/**
 	 * Applies the information read to an already existing table.
 	 * @param f	the file to read from.
@@ -69,7 +662,27 @@ public class DLReader
 	 */
 	public void apply(File f, DLStruct dlst) throws IOException
 	{
-		apply(f.getPath(), new FileInputStream(f), dlst);
+		Reader reader = new InputStreamReader(new FileInputStream(f));
+		try {
+			apply(DLLexer.Input.wrap(f.getPath(), reader), dlst);
+		} finally {
+			Common.close(reader);
+		}
+	}
+	
+	/**
+	 * Applies the information read to an already existing table.
+	 * The file is memory-mapped if it is large enough, and is lexed directly 
+	 * from its bytes, which are expected to be UTF-8 (or ASCII).
+	 * @param path the path to the file to read from.
+	 * @param dlst the table to apply the info to.
+	 * @throws IOException if the file can't be read or mapped.
+	 * @throws NullPointerException	if either object is null. 
+	 * @since 2.6.0
+	 */
+	public void apply(Path path, DLStruct dlst) throws IOException
+	{
+		apply(DLLexer.Input.wrap(path.toString(), mapFile(path)), dlst);
 	}
 	
 	/**
@@ -79,129 +692,816 @@ public class DLReader
 	 * @param dlst	the table to apply the info to.
 	 * @throws NullPointerException	if either object is null. 
 	 */
-	public void apply(String streamName, InputStream in, DLStruct dlst)
+	public void apply(String streamName, InputStream in, DLStruct dlst)
+	{
+		apply(wrap(streamName, in, Charset.defaultCharset()), dlst);
+	}
+	
+	/**
+	 * Applies the information read to an already existing table, decoding the stream with a specific charset.
+	 * @param streamName the name of the stream.
+	 * @param in the stream to read from.
+	 * @param charset the charset to decode the stream with.
+	 * @param dlst the table to apply the info to.
+	 * @throws NullPointerException	if any object is null. 
+	 * @since 2.6.0
+	 */
+	public void apply(String streamName, InputStream in, Charset charset, DLStruct dlst)
+	{
+		apply(wrap(streamName, in, charset), dlst);
+	}
+	
+	/**
+	 * Applies the information read to an already existing table, decoding the file with a specific charset.
+	 * UTF-8 and ASCII files are memory-mapped and lexed in place, as by {@link #apply(Path, DLStruct)}.
+	 * @param path the path to the file to read from.
+	 * @param charset the charset to decode the file with.
+	 * @param dlst the table to apply the info to.
+	 * @throws IOException if the file can't be read or mapped.
+	 * @throws NullPointerException	if any object is null. 
+	 * @since 2.6.0
+	 */
+	public void apply(Path path, Charset charset, DLStruct dlst) throws IOException
+	{
+		apply(DLLexer.Input.wrap(path.toString(), mapFile(path), charset), dlst);
+	}
+	
+	/**
+	 * Applies the information read from text in memory to an already existing table, without copying it.
+	 * The text must not change until this returns, 
+	 * or, if this reads lazily, until every struct read is loaded.
+	 * @param streamName the name of the text, which included paths are resolved against.
+	 * @param text the text to read.
+	 * @param dlst the table to apply the info to.
+	 * @throws DLParseException if the text contains a parse error.
+	 * @throws NullPointerException	if any object is null. 
+	 * @since 2.6.0
+	 */
+	public void apply(String streamName, CharSequence text, DLStruct dlst)
+	{
+		apply(new DLLexer.Input(streamName, text, 0, text.length()), dlst);
+	}
+	
+	/**
+	 * Applies the information read from a range of a character array to an already existing table, without copying it.
+	 * The characters must not change until this returns, 
+	 * or, if this reads lazily, until every struct read is loaded.
+	 * @param streamName the name of the text, which included paths are resolved against.
+	 * @param chars the array to read from.
+	 * @param offset the offset into the array of the first character to read.
+	 * @param length the number of characters to read.
+	 * @param dlst the table to apply the info to.
+	 * @throws DLParseException if the characters contain a parse error.
+	 * @throws IndexOutOfBoundsException if the range is outside of the array.
+	 * @throws NullPointerException	if any object is null. 
+	 * @since 2.6.0
+	 */
+	public void apply(String streamName, char[] chars, int offset, int length, DLStruct dlst)
+	{
+		if (offset < 0 || length < 0 || offset + length > chars.length || offset + length < 0)
+			throw new IndexOutOfBoundsException("Offset " + offset + " and length " + length + " are outside of an array of length " + chars.length);
+		apply(new DLLexer.Input(streamName, chars, offset, length), dlst);
+	}
+	
+	/**
+	 * Applies the information read from a buffer of bytes to an already existing table, 
+	 * from its position to its limit. UTF-8 and ASCII bytes are lexed in place, 
+	 * without decoding or copying them, and other charsets are decoded once. 
+	 * The buffer's position is not changed.
+	 * Bytes read in place must not change until this returns, 
+	 * or, if this reads lazily, until every struct read is loaded.
+	 * @param streamName the name of the text, which included paths are resolved against.
+	 * @param bytes the buffer to read from.
+	 * @param charset the charset of the bytes.
+	 * @param dlst the table to apply the info to.
+	 * @throws DLParseException if the bytes contain a parse error.
+	 * @throws NullPointerException	if any object is null. 
+	 * @since 2.6.0
+	 */
+	public void apply(String streamName, ByteBuffer bytes, Charset charset, DLStruct dlst)
+	{
+		apply(DLLexer.Input.wrap(streamName, bytes, charset), dlst);
+	}
+
+	/**
+	 * Applies the information read from a lexer input to an already existing table.
+	 */
+	private void apply(DLLexer.Input input, DLStruct dlst)
+	{
+		if (parallelPool != null && !lazy && input.limit - input.pos >= PARALLEL_THRESHOLD)
+			applyParallel(input, dlst);
+		else
+			parse(input, createBuilder(dlst));
+	}
+	
+	/**
+	 * Applies the information read from a lexer input to an already existing table,
+	 * reading runs of independent top-level statements on the parallel pool.
+	 */
+	private void applyParallel(DLLexer.Input input, DLStruct dlst)
+	{
+		int chunkSize = Math.max(PARALLEL_CHUNK_SIZE, 
+			(input.limit - input.pos) / (parallelPool.getParallelism() * PARALLEL_CHUNKS_PER_THREAD));
+		
+		prepare(input);
+		int start = input.pos;
+		int startLine = input.line;
+		DLLexer scanner = new DLLexer(this, input);
+		HashMap<String,DLArchetype> archetypeTable = new HashMap<String,DLArchetype>();
+		DLStructBuilder builder = createBuilder(dlst);
+		Queue<ChunkParse> pending = new Queue<ChunkParse>();
+		int[] range = new int[3];
+		int chunkStart = -1, chunkEnd = -1, chunkLine = 0;
+		int kind;
+		boolean first = true;
+		boolean tableShared = false;
+		
+		try {
+			do {
+				kind = scanner.scanStatement(range);
+				
+				// nothing at all: let the parser report it.
+				if (kind == DLLexer.STATEMENT_NONE && first)
+				{
+					parse(input.region(start, input.limit, startLine), createBuilder(dlst));
+					return;
+				}
+				first = false;
+				
+				if (kind == DLLexer.STATEMENT_INDEPENDENT)
+				{
+					if (chunkStart < 0)
+					{
+						chunkStart = range[0];
+						chunkLine = range[2];
+					}
+					chunkEnd = range[1];
+					if (chunkEnd - chunkStart < chunkSize)
+						continue;
+				}
+				
+				// submit the run so far.
+				if (chunkStart >= 0)
+				{
+					ChunkParse chunk = new ChunkParse(input.region(chunkStart, chunkEnd, chunkLine), archetypeTable);
+					chunk.task = parallelPool.submit(chunk);
+					pending.enqueue(chunk);
+					tableShared = true;
+					chunkStart = -1;
+				}
+				
+				if (kind == DLLexer.STATEMENT_ARCHETYPE)
+				{
+					// running pieces keep the table that they started with.
+					if (tableShared)
+					{
+						archetypeTable = copyTable(archetypeTable);
+						tableShared = false;
+					}
+					parseStatement(input.region(range[0], range[1], range[2]), archetypeTable, builder);
+				}
+				else if (kind == DLLexer.STATEMENT_DEPENDENT)
+				{
+					while (!pending.isEmpty())
+						merge(pending.dequeue(), builder);
+					parseStatement(input.region(range[0], range[1], range[2]), archetypeTable, builder);
+				}
+				
+			} while (kind != DLLexer.STATEMENT_NONE);
+	
+			while (!pending.isEmpty())
+				merge(pending.dequeue(), builder);
+			
+		} finally {
+			while (!pending.isEmpty())
+				pending.dequeue().task.cancel(true);
+		}
+	}
+	
+	/**
+	 * Reads a single top-level statement into a table on the calling thread.
+	 * @param builder the builder for the table, which is reused so that its inherit lookups are kept.
+	 */
+	private void parseStatement(DLLexer.Input input, HashMap<String,DLArchetype> archetypeTable, DLStructBuilder builder)
+	{
+		DLParser parser = new DLParser(builder, new DLLexer(this, input), 
+			archetypeTable, projection, null, DLProjection.CONTAINER, false);
+		parser.read();
+	}
+	
+	/**
+	 * Waits for a piece read in parallel and adds what it read to a table.
+	 */
+	private static void merge(ChunkParse parse, DLStructBuilder builder)
+	{
+		parse.task.join();
+		if (parse.error != null)
+			throw parse.error;
+		builder.added(parse.result);
+		builder.current().splice(parse.result);
+	}
+	
+	/**
+	 * Returns a shallow copy of an archetype table.
+	 */
+	private static HashMap<String,DLArchetype> copyTable(HashMap<String,DLArchetype> table)
+	{
+		HashMap<String,DLArchetype> out = new HashMap<String,DLArchetype>();
+		Iterator<String> it = table.keyIterator();
+		while (it.hasNext())
+		{
+			String name = it.next();
+			out.put(name, table.get(name));
+		}
+		return out;
+	}
+	
+	/**
+	 * Wraps a stream as a lexer input.
+	 * @throws DLParseException if the stream can't be read.
+	 */
+	private static DLLexer.Input wrap(String streamName, InputStream in, Charset charset)
+	{
+		try {
+			return DLLexer.Input.wrap(streamName, new InputStreamReader(in, charset));
+		} catch (IOException e) {
+			throw new DLParseException("(" + streamName + ") Could not read stream: " + e.getMessage(), e);
+		}
+	}
+	
+	/**
+	 * Parses a file, reporting what is read to an event handler instead of building a {@link DLStruct}.
+	 * @param f	the file to read from.
+	 * @param handler the handler to report to.
+	 * @throws IOException if the file can't be read.
+	 * @throws DLParseException if the file contains a parse error.
+	 * @throws NullPointerException	if either object is null. 
+	 * @since 2.6.0
+	 */
+	public void parse(File f, DLEventHandler handler) throws IOException
+	{
+		Reader reader = new InputStreamReader(new FileInputStream(f));
+		try {
+			parse(DLLexer.Input.wrap(f.getPath(), reader), handler);
+		} finally {
+			Common.close(reader);
+		}
+	}
+	
+	/**
+	 * Parses a file, reporting what is read to an event handler instead of building a {@link DLStruct}.
+	 * The file is memory-mapped if it is large enough, and is lexed directly 
+	 * from its bytes, which are expected to be UTF-8 (or ASCII).
+	 * @param path the path to the file to read from.
+	 * @param handler the handler to report to.
+	 * @throws IOException if the file can't be read or mapped.
+	 * @throws DLParseException if the file contains a parse error.
+	 * @throws NullPointerException	if either object is null. 
+	 * @since 2.6.0
+	 */
+	public void parse(Path path, DLEventHandler handler) throws IOException
+	{
+		parse(DLLexer.Input.wrap(path.toString(), mapFile(path)), handler);
+	}
+	
+	/**
+	 * Parses a stream, reporting what is read to an event handler instead of building a {@link DLStruct}.
+	 * @param streamName the name of the stream.
+	 * @param in the stream to read from.
+	 * @param handler the handler to report to.
+	 * @throws DLParseException if the stream can't be read or contains a parse error.
+	 * @throws NullPointerException	if either object is null. 
+	 * @since 2.6.0
+	 */
+	public void parse(String streamName, InputStream in, DLEventHandler handler)
+	{
+		parse(wrap(streamName, in, Charset.defaultCharset()), handler);
+	}
+	
+	/**
+	 * Opens a file for reading one event at a time.
+	 * @param f	the file to read from.
+	 * @return a new stream reader, positioned before the first event.
+	 * @throws IOException if the file can't be read.
+	 * @throws NullPointerException	if f is null. 
+	 * @since 2.6.0
+	 */
+	public DLStreamReader createStreamReader(File f) throws IOException
+	{
+		Reader reader = new InputStreamReader(new FileInputStream(f));
+		try {
+			return new DLStreamReader(archetypeRegistry, new DLLexer(this, prepare(DLLexer.Input.wrap(f.getPath(), reader))));
+		} finally {
+			Common.close(reader);
+		}
+	}
+	
+	/**
+	 * Opens a file for reading one event at a time.
+	 * The file is memory-mapped if it is large enough, and is lexed directly 
+	 * from its bytes, which are expected to be UTF-8 (or ASCII).
+	 * @param path the path to the file to read from.
+	 * @return a new stream reader, positioned before the first event.
+	 * @throws IOException if the file can't be read or mapped.
+	 * @throws NullPointerException	if path is null. 
+	 * @since 2.6.0
+	 */
+	public DLStreamReader createStreamReader(Path path) throws IOException
+	{
+		return new DLStreamReader(archetypeRegistry, new DLLexer(this, prepare(DLLexer.Input.wrap(path.toString(), mapFile(path)))));
+	}
+	
+	/**
+	 * Opens a stream for reading one event at a time.
+	 * @param streamName the name of the stream.
+	 * @param in the stream to read from.
+	 * @return a new stream reader, positioned before the first event.
+	 * @throws DLParseException if the stream can't be read.
+	 * @throws NullPointerException	if in is null. 
+	 * @since 2.6.0
+	 */
+	public DLStreamReader createStreamReader(String streamName, InputStream in)
+	{
+		return new DLStreamReader(archetypeRegistry, new DLLexer(this, prepare(wrap(streamName, in, Charset.defaultCharset()))));
+	}
+	
+	/**
+	 * Creates a reusable reader for reading many small sources from memory, 
+	 * which keeps its lexer, parser and buffers between reads.
+	 * It uses this reader's projection and symbol table as they are now.
+	 * @return a new message reader.
+	 * @since 2.6.0
+	 */
+	public DLMessageReader createMessageReader()
+	{
+		return new DLMessageReader(this, symbolTable);
+	}
+	
+	/**
+	 * Creates the builder that reads into a struct.
+	 */
+	DLStructBuilder createBuilder(DLStruct dlst)
+	{
+		return new DLStructBuilder(dlst, prototypes);
+	}
+	
+	/**
+	 * Parses a lexer input, reporting to an event handler.
+	 */
+	private void parse(DLLexer.Input input, DLEventHandler handler)
+	{
+		DLParser parser = new DLParser(handler, new DLLexer(this, prepare(input)));
+		parser.read();
+	}
+	
+	/**
+	 * Creates a parser for reading a source from the start, right away, ignoring {@link #isLazy()}.
+	 */
+	DLParser createParser(DLEventHandler handler, DLLexer lexer)
+	{
+		return new DLParser(handler, lexer, new HashMap<String, DLArchetype>(), projection, null, DLProjection.CONTAINER, false);
+	}
+	
+	/**
+	 * Prepares a source input for reading: attaches its symbol table, and 
+	 * starts loading the resources that it includes, if this loads includes ahead of time.
+	 * @return the input.
+	 */
+	DLLexer.Input prepare(DLLexer.Input input)
+	{
+		if (input.symbols == null)
+			input.symbols = symbolTable != null ? symbolTable : new DLSymbolTable();
+		if (includeExecutor != null && input.prefetcher == null)
+			new DLIncludePrefetcher(this, includeExecutor).prefetch(input);
+		return input;
+	}
+	
+	/**
+	 * Reads a struct's deferred body into it.
+	 * @throws DLParseException if the body contains a parse error.
+	 */
+	void readBody(DLLazyBody body, DLStruct struct)
+	{
+		DLParser parser = new DLParser(createBuilder(struct), new DLLexer(this, body.input), 
+			body.archetypeTable, body.projection, body.path, body.match, true);
+		parser.readBody();
+	}
+	
+	/**
+	 * Maps a file into memory, or reads it into a heap buffer if it is small.
+	 */
+	private static ByteBuffer mapFile(Path path) throws IOException
+	{
+		FileChannel fc = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			long size = fc.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File " + path + " is too large to map.");
+			if (size >= MAP_THRESHOLD)
+				return fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			ByteBuffer out = ByteBuffer.allocate((int)size);
+			while (out.hasRemaining() && fc.read(out) >= 0);
+			out.flip();
+			return out;
+		} finally {
+			fc.close();
+		}
+	}
+	
+	/**
+	 * Returns a stream to a resource using a string path.
+	 * May return null, if the path refers to a resource that doesn't exist.
+	 */
+	public InputStream getIncludeResource(String streamName, String path) throws IOException
+	{
+		URL url = resolveInclude(streamName, path);
+		if (url == null)
+			return null;
+		File f = toFile(url);
+		if (f != null)
+			return new FileInputStream(f);
+		return url.openStream();
+	}
+	
+	/**
+	 * Returns the key to cache an included resource under, resolved the same way as 
+	 * {@link #getIncludeResource(String, String)}. The key must change if the resource's content does.
+	 * By default, this is a file's absolute path plus its modification time and length, 
+	 * or a classpath resource's URL (plus the same details, if it is a file).
+	 * <p>
+	 * Subclasses that override {@link #getIncludeResource(String, String)} should override this too.
+	 * </p>
+	 * @param streamName the name of the stream that includes the resource.
+	 * @param path the included path.
+	 * @return the key, or null if the resource should not be cached (or does not exist).
+	 * @see #setIncludeCache(DLIncludeCache)
+	 * @since 2.6.0
+	 */
+	public String getIncludeKey(String streamName, String path)
+	{
+		URL url;
+		try {
+			url = resolveInclude(streamName, path);
+		} catch (IOException e) {
+			return null;
+		}
+		if (url == null)
+			return null;
+		File f = toFile(url);
+		return f != null ? getFileKey(f) : url.toExternalForm();
+	}
+	
+	/**
+	 * Returns the file that an included resource is read from, resolved the same way as 
+	 * {@link #getIncludeResource(String, String)}, or null if it is not a file.
+	 */
+	File getIncludeFile(String streamName, String path)
+	{
+		try {
+			URL url = resolveInclude(streamName, path);
+			return url != null ? toFile(url) : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Resolves an included path to the resource that it refers to.
+	 * Paths in a classpath stream, or that start with <code>classpath:</code>, are classpath resources.
+	 * Other paths are files, relative to the including stream's directory if one exists there, 
+	 * or else to the working directory. Files are resolved whether or not they exist.
+	 * @return the resource's URL, or null if it is a classpath resource that doesn't exist.
+	 * @throws IOException if a file path can't be made into a URL.
+	 */
+	static URL resolveInclude(String streamName, String path) throws IOException
+	{
+		if (Common.isWindows() && streamName.contains("\\")) // check for Windows paths.
+			streamName = streamName.replace('\\', '/');
+		
+		String streamParent = null;
+		int lidx = -1; 
+		if ((lidx = streamName.lastIndexOf('/')) >= 0)
+			streamParent = streamName.substring(0, lidx + 1);
+		
+		if (path.startsWith(CLASSPATH_PREFIX) || (streamParent != null && streamParent.startsWith(CLASSPATH_PREFIX)))
+		{
+			String resource = ((streamParent != null ? streamParent : "") + path).substring(CLASSPATH_PREFIX.length());
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
+			return (loader != null ? loader : DLReader.class.getClassLoader()).getResource(resource);
+		}
+		else
+		{
+			File f = null;
+			if (streamParent == null || !(f = new File(streamParent + path)).exists())
+				f = new File(path);
+			return f.toURI().toURL();
+		}
+	}
+	
+	/**
+	 * Returns the file that a URL refers to, or null if it is not a file URL.
+	 */
+	private static File toFile(URL url)
+	{
+		if (!"file".equals(url.getProtocol()))
+			return null;
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads a file into a table, and adds every file that it includes to a set.
+	 * @throws IOException if the file can't be read.
+	 * @throws DLParseException if the file contains a parse error.
+	 */
+	void apply(Path path, DLStruct dlst, Set<Path> includes) throws IOException
+	{
+		DLLexer.Input input = DLLexer.Input.wrap(path.toString(), mapFile(path));
+		input.includes = includes;
+		apply(input, dlst);
+	}
+	
+	/**
+	 * Returns a cache key for a file, or null if it does not exist.
+	 */
+	private static String getFileKey(File f)
+	{
+		if (!f.isFile())
+			return null;
+		return f.getAbsolutePath() + '@' + f.lastModified() + ':' + f.length();
+	}
+	
+	/**
+	 * Opens an included resource as a new lexer input, through the include cache, if any.
+	 * @return the new input, or null if the resource was not found.
+	 * @throws IOException if the resource could not be read.
+	 */
+	DLLexer.Input openInclude(String streamName, String path) throws IOException
+	{
+		DLIncludeCache cache = includeCache;
+		String name = DLLexer.includeName(streamName, path);
+		String key = cache != null ? getIncludeKey(streamName, path) : null;
+		
+		if (key != null)
+		{
+			DLIncludeCache.Entry entry = cache.get(key);
+			if (entry != null)
+				return entry.open(name);
+		}
+		
+		InputStream in = getIncludeResource(streamName, path);
+		if (in == null)
+			return null;
+
+		DLLexer.Input out;
+		try {
+			out = DLLexer.Input.wrap(name, new InputStreamReader(in));
+		} finally {
+			in.close();
+		}
+		
+		if (key != null)
+		{
+			DLIncludeCache.Entry entry = new DLIncludeCache.Entry(out);
+			cache.put(key, entry);
+			out = entry.open(name);
+		}
+		return out;
+	}
+	
+	/**
+	 * Holds the default executor for asynchronous reads, which is created on first use.
+	 */
+	private static final class DefaultExecutor
 	{
-		DLLexer lexer = new DLLexer(streamName, new InputStreamReader(in));
-		DLParser parser = new DLParser(dlst, lexer);
-		parser.read();
+		private static final Executor INSTANCE = create();
+		
+		/**
+		 * Creates a virtual thread per task executor, if the runtime has them,
+		 * or else a cached pool of daemon threads.
+		 */
+		private static Executor create()
+		{
+			try {
+				return (Executor)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				final AtomicInteger count = new AtomicInteger(0);
+				return Executors.newCachedThreadPool(new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread out = new Thread(r, "DLReader-async-" + count.incrementAndGet());
+						out.setDaemon(true);
+						return out;
+					}
+				});
+			}
+		}
 	}
 	
 	/**
-	 * Returns a stream to a resource using a string path.
-	 * May return null, if the path refers to a resource that doesn't exist.
+	 * Reads a file of a tree into a new table, and times it.
 	 */
-	public InputStream getIncludeResource(String streamName, String path) throws IOException
+	private class TreeRead implements Callable<DLStruct>
 	{
-		if (Common.isWindows() && streamName.contains("\\")) // check for Windows paths.
-			streamName = streamName.replace('\\', '/');
+		private Path path;
+		private FutureTask<DLStruct> task;
+		private long nanos;
 		
-		String streamParent = null;
-		int lidx = -1; 
-		if ((lidx = streamName.lastIndexOf('/')) >= 0)
-			streamParent = streamName.substring(0, lidx + 1);
+		TreeRead(Path path)
+		{
+			this.path = path;
+			this.task = new FutureTask<DLStruct>(this);
+		}
 		
-		if (path.startsWith(CLASSPATH_PREFIX) || (streamParent != null && streamParent.startsWith(CLASSPATH_PREFIX)))
-			return Common.openResource(((streamParent != null ? streamParent : "") + path).substring(CLASSPATH_PREFIX.length()));
-		else
+		@Override
+		public DLStruct call() throws IOException
 		{
-			File f = null;
-			if (streamParent != null)
-			{
-				f = new File(streamParent + path);
-				if (f.exists())
-					return new FileInputStream(f);
-				else
-					return new FileInputStream(new File(path));
-			}
-			else
-			{
-				return new FileInputStream(new File(path));
-			}
-			
+			long start = System.nanoTime();
+			DLStruct out = read(path);
+			nanos = System.nanoTime() - start;
+			return out;
 		}
 		
 	}
 	
 	/**
-	 * Kernel for DLLexerKernel.
+	 * Waits for a read without being interrupted, and returns its result, rethrowing what it threw.
 	 */
-	private static class DLLexerKernel extends CommonLexerKernel
+	static <T> T join(Future<T> task) throws IOException
 	{
-		public static final int TYPE_LBRACE = 0;
-		public static final int TYPE_RBRACE = 1;
-		public static final int TYPE_LPAREN = 2;
-		public static final int TYPE_RPAREN = 3;
-		public static final int TYPE_LBRACK = 4;
-		public static final int TYPE_RBRACK = 5;
-		public static final int TYPE_SEMICOLON = 6;
-		public static final int TYPE_COLON = 7;
-		public static final int TYPE_COMMA = 8;
-		public static final int TYPE_PERIOD = 9;
-		public static final int TYPE_MINUS = 10;
-
-		public static final int TYPE_COMMENT = 11;
-
-		public DLLexerKernel()
-		{
-			addStringDelimiter('"', '"');
-			
-			addDelimiter("{", TYPE_LBRACE);
-			addDelimiter("}", TYPE_RBRACE);
-			addDelimiter("(", TYPE_LPAREN);
-			addDelimiter(")", TYPE_RPAREN);
-			addDelimiter("[", TYPE_LBRACK);
-			addDelimiter("]", TYPE_RBRACK);
-			addDelimiter(";", TYPE_SEMICOLON);
-			addDelimiter(":", TYPE_COLON);
-			addDelimiter(",", TYPE_COMMA);
-			addDelimiter(".", TYPE_PERIOD);
-			addDelimiter("-", TYPE_MINUS);
-			
-			addCommentStartDelimiter("/*", TYPE_COMMENT);
-			addCommentLineDelimiter("//", TYPE_COMMENT);
-			addCommentEndDelimiter("*/", TYPE_COMMENT);
+		boolean interrupted = false;
+		try {
+			while (true)
+			{
+				try {
+					return task.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException)cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if (cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause);
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
 		}
 	}
 	
-	private static final DLLexerKernel KERNEL = new DLLexerKernel();
-
 	/**
-	 * Lexer class for the reader. 
+	 * Reads a run of top-level statements into a new table.
 	 */
-	private class DLLexer extends CommonLexer
+	private class ChunkParse implements Runnable
 	{
-		protected DLLexer(String name, Reader in)
+		private DLLexer.Input input;
+		private HashMap<String,DLArchetype> archetypeTable;
+		
+		/** The task running this. */
+		private ForkJoinTask<?> task;
+		/** The read table. */
+		private DLStruct result;
+		/** The error thrown while reading, kept as-is rather than rethrown by the pool. */
+		private RuntimeException error;
+		
+		ChunkParse(DLLexer.Input input, HashMap<String,DLArchetype> archetypeTable)
 		{
-			super(KERNEL, name, in);
+			this.input = input;
+			this.archetypeTable = archetypeTable;
 		}
 		
 		@Override
-		public InputStream getResource(String path) throws IOException
+		public void run()
 		{
-			return getIncludeResource(getCurrentStreamName(), path);
+			DLStruct out = new DLStruct();
+			try {
+				parseStatement(input, archetypeTable, createBuilder(out));
+				result = out;
+			} catch (RuntimeException e) {
+				error = e;
+			}
 		}
-		
 	}
-
+	
 	/**
 	 * Parser class for the reader. 
+	 * Reports what it reads to a {@link DLEventHandler}.
 	 */
-	private class DLParser extends Parser
+	class DLParser
 	{
-		private Stack<DLStruct> structStack;
-		private DLStruct stackTop;
+		private DLLexer lexer;
+		private DLEventHandler handler;
+		private Queue<String> errors;
 		private Stack<String> currentName;
 		private Stack<DLValue> currentValue;
-		private HashMap<String,String[]> archetypeTable;
+		private HashMap<String,DLArchetype> archetypeTable;
+		/** If true, deferred bodies hold the archetype table, so it is copied before it changes. */
+		private boolean tableShared;
+		/** The shared archetypes to use after the declared ones, or null. */
+		private DLArchetypeRegistry archetypeRegistry;
+		/** The last archetype used, or null. */
+		private DLArchetype lastArchetype;
+		/** Buffer for archetype clause values, in slot order. */
+		private DLValue[] slots;
+		
+		private DLProjection projection;
+		private int depth;
+		private String[] path;
+		private int[] pathMatch;
 		
-		protected DLParser(DLStruct dls, Lexer lexer)
+		/** The builder to defer struct bodies to, or null if reading everything right away. */
+		private DLStructBuilder lazyBuilder;
+		/** The handler, if it builds structs, for setting archetype slots all at once. */
+		private DLStructBuilder structBuilder;
+		
+		/** Buffer for array values. */
+		private DLArrayBuffer arrayBuffer;
+		/** The last number read by <Number>. */
+		private double number;
+		/** True if the last number read by <Number> is an integer that fits in a long. */
+		private boolean integer;
+		/** The last number read by <Number>, if it is an integer. */
+		private long integerNumber;
+		
+		protected DLParser(DLEventHandler handler, DLLexer lexer)
+		{
+			this(handler, lexer, new HashMap<String, DLArchetype>(), DLReader.this.projection, null, DLProjection.CONTAINER, DLReader.this.lazy);
+		}
+		
+		/**
+		 * Creates a parser that starts at a struct's place in a projection.
+		 * @param path the projection path to the struct, or null for the top level.
+		 * @param match the projection match of the struct.
+		 * @param lazy if true, defer struct bodies, if the handler builds structs.
+		 */
+		protected DLParser(DLEventHandler handler, DLLexer lexer, HashMap<String,DLArchetype> archetypeTable, DLProjection projection, String[] path, int match, boolean lazy)
 		{
-			super(lexer);
-			structStack = new Stack<DLStruct>();
+			this.projection = projection;
+			this.depth = path != null ? path.length : 0;
+			if (projection != null)
+			{
+				this.path = new String[Math.max(8, depth * 2)];
+				this.pathMatch = new int[this.path.length];
+				if (path != null)
+					System.arraycopy(path, 0, this.path, 0, depth);
+				pathMatch[depth] = match;
+			}
+			this.lazyBuilder = lazy && handler instanceof DLStructBuilder ? (DLStructBuilder)handler : null;
+			this.structBuilder = handler instanceof DLStructBuilder ? (DLStructBuilder)handler : null;
+			this.lexer = lexer;
+			this.handler = handler;
+			errors = new Queue<String>();
 			currentName = new Stack<String>();
 			currentValue = new Stack<DLValue>();
-			archetypeTable = new HashMap<String, String[]>();
-			pushStruct(dls);
+			arrayBuffer = new DLArrayBuffer();
+			this.archetypeTable = archetypeTable;
+			this.tableShared = false;
+			this.archetypeRegistry = DLReader.this.archetypeRegistry;
+			this.lastArchetype = null;
+			this.slots = new DLValue[8];
+		}
+		
+		/**
+		 * Starts this parser over on a new handler, after its lexer was reset.
+		 * Archetypes declared before are forgotten.
+		 */
+		void reset(DLEventHandler handler)
+		{
+			this.handler = handler;
+			this.structBuilder = handler instanceof DLStructBuilder ? (DLStructBuilder)handler : null;
+			this.lastArchetype = null;
+			this.depth = 0;
+			if (projection != null)
+				pathMatch[0] = DLProjection.CONTAINER;
+			errors.clear();
+			currentName.clear();
+			currentValue.clear();
+			if (tableShared)
+			{
+				archetypeTable = new HashMap<String,DLArchetype>();
+				tableShared = false;
+			}
+			else
+				archetypeTable.clear();
+		}
+		
+		/**
+		 * Gives up buffers grown for a large source, after it is read, for a parser that is kept.
+		 */
+		void trim()
+		{
+			arrayBuffer.trim();
 		}
 		
 		public void read()
@@ -209,19 +1509,41 @@ public class DLReader
 			nextToken();
 			
 			boolean strOk = false;
-			while (currentToken() != null && (strOk = StructList()));
+			while (!lexer.isEnd() && (strOk = StructList()));
 			if (!strOk)
 				addErrorMessage("Expected valid structure.");
 			
-			String[] errors = getErrorMessages();
-			if (errors.length > 0)
+			throwErrors();
+		}
+		
+		/**
+		 * Reads a deferred struct body, from just after its opening brace.
+		 */
+		public void readBody()
+		{
+			nextToken();
+			
+			if (InnerStructList())
+			{
+				if (!matchType(DLLexer.TYPE_RBRACE))
+					addErrorMessage("Expected '}'");
+				else if (!lexer.isEnd())
+					addErrorMessage("Expected end of struct.");
+			}
+			
+			throwErrors();
+		}
+		
+		private void throwErrors()
+		{
+			if (!errors.isEmpty())
 			{
 				StringBuilder sb = new StringBuilder();
-				for (int i = 0; i < errors.length; i++)
+				for (String error : errors)
 				{
-					sb.append(errors[i]);
-					if (i < errors.length-1)
+					if (sb.length() > 0)
 						sb.append('\n');
+					sb.append(error);
 				}
 				throw new DLParseException(sb.toString());
 			}
@@ -231,35 +1553,43 @@ public class DLReader
 		 * <StructList> :=	<EOLEX> | 
 		 *					"." <ID> <ArchetypeDecl> ";" <StructList> |
 		 *					<StructDecl> <StructList>
+		 * Reads one entry - read() loops over the list.
 		 */
 		private boolean StructList()
 		{
-			if (currentToken() == null)
+			if (lexer.isEnd())
 				return true;
 			
-			else if (matchType(DLLexerKernel.TYPE_PERIOD))
+			DLArchetype[] included = lexer.getIncludedArchetypes();
+			if (included != null)
 			{
-				if (!currentType(DLLexerKernel.TYPE_IDENTIFIER))
+				// a cached include of nothing but archetype declarations: declare them without parsing it.
+				for (DLArchetype archetype : included)
+					declareArchetype(archetype);
+				lexer.skipInput();
+				return true;
+			}
+			
+			else if (matchType(DLLexer.TYPE_PERIOD))
+			{
+				if (!currentType(DLLexer.TYPE_IDENTIFIER))
 				{
 					addErrorMessage("Expected identifier.");
 					return false;
 				}
 
-				currentName.push(currentToken().getLexeme());
+				currentName.push(lexer.getLexeme());
 				nextToken();
 
 				if (!ArchetypeDecl())
 					return false;
 				
-				if (!matchType(DLLexerKernel.TYPE_SEMICOLON))
+				if (!matchType(DLLexer.TYPE_SEMICOLON))
 				{
 					addErrorMessage("Expected ';'");
 					return false;
 				}
 				
-				if (!StructList())
-					return false;
-				
 				return true;
 			}
 			
@@ -271,7 +1601,7 @@ public class DLReader
 		 */
 		private boolean ArchetypeDecl()
 		{
-			if (!matchType(DLLexerKernel.TYPE_LPAREN))
+			if (!matchType(DLLexer.TYPE_LPAREN))
 			{
 				addErrorMessage("Expected '('");
 				return false;
@@ -280,7 +1610,7 @@ public class DLReader
 			if (!IDList())
 				return false;
 
-			if (!matchType(DLLexerKernel.TYPE_RPAREN))
+			if (!matchType(DLLexer.TYPE_RPAREN))
 			{
 				addErrorMessage("Expected ')'");
 				return false;
@@ -292,19 +1622,37 @@ public class DLReader
 			while (currentName.size()-1 > 0)
 				archids[i--] = currentName.pop();
 			
-			archetypeTable.put(currentName.pop(), archids);
-
+			String archName = currentName.pop();
+			declareArchetype(new DLArchetype(archName, archids));
 			return true;
 		}
 		
+		/*
+		 * Adds a compiled archetype to the archetypes declared so far.
+		 */
+		private void declareArchetype(DLArchetype archetype)
+		{
+			// deferred bodies keep the table that they were read with.
+			if (tableShared)
+			{
+				archetypeTable = copyTable(archetypeTable);
+				tableShared = false;
+			}
+			archetypeTable.put(archetype.name, archetype);
+			if (archetypeRegistry != null)
+				archetypeRegistry.put(archetype);
+			lastArchetype = null;
+			handler.archetypeDecl(archetype.name, archetype.fields.clone());
+		}
+		
 		/* 
 		 * <StructDecl> := <ID> <StructTail>
 		 */
 		private boolean StructDecl()
 		{
-			if (currentType(DLLexerKernel.TYPE_IDENTIFIER))
+			if (currentType(DLLexer.TYPE_IDENTIFIER))
 			{
-				currentName.push(currentToken().getLexeme());
+				currentName.push(lexer.getLexeme());
 				nextToken();
 				
 				if (!StructTail())
@@ -322,15 +1670,13 @@ public class DLReader
 		 */
 		private boolean InnerStructList()
 		{
-			if (currentType(DLLexerKernel.TYPE_IDENTIFIER))
+			while (currentType(DLLexer.TYPE_IDENTIFIER))
 			{
-				currentName.push(currentToken().getLexeme());
+				currentName.push(lexer.getLexeme());
 				nextToken();
 				
 				if (!StructTail())
 					return false;
-		
-				return InnerStructList();
 			}
 		
 			return true;
@@ -344,28 +1690,45 @@ public class DLReader
 		 */
 		private boolean StructTail()
 		{
-			if (matchType(DLLexerKernel.TYPE_LBRACE))
+			int match = match(currentName.peek());
+			if (match == DLProjection.SKIP)
+			{
+				currentName.pop();
+				return skipStatement();
+			}
+			
+			if (currentType(DLLexer.TYPE_LBRACE))
 			{
-				pushStruct(stackTop.putStruct(currentName.peek()));
+				startStruct(currentName.peek(), null, match);
 
-				if (!InnerStructList())
-					return false;
-				
-				if (!matchType(DLLexerKernel.TYPE_RBRACE))
+				if (lazyBuilder != null)
 				{
-					addErrorMessage("Expected '}'");
-					return false;
+					if (!deferBody())
+						return false;
+				}
+				else
+				{
+					nextToken();
+					
+					if (!InnerStructList())
+						return false;
+					
+					if (!matchType(DLLexer.TYPE_RBRACE))
+					{
+						addErrorMessage("Expected '}'");
+						return false;
+					}
 				}
 				
-				popStruct();
+				endStruct();
 				currentName.pop();
 				return true;
 			}
 			
 			// lookahead for <InheritClause>
-			else if (currentType(DLLexerKernel.TYPE_COLON))
+			else if (currentType(DLLexer.TYPE_COLON))
 			{
-				pushStruct(stackTop.putStruct(currentName.peek()));
+				startStruct(currentName.peek(), null, match);
 
 				if (!InheritClause())
 					return false;
@@ -374,9 +1737,9 @@ public class DLReader
 			}
 			
 			// lookahead for <ArchetypeClause>
-			else if (currentType(DLLexerKernel.TYPE_LPAREN))
+			else if (currentType(DLLexer.TYPE_LPAREN))
 			{
-				pushStruct(stackTop.putStruct(currentName.peek()));
+				startStruct(currentName.peek(), null, match);
 
 				if (!ArchetypeClause())
 					return false;
@@ -390,17 +1753,20 @@ public class DLReader
 				if (!Value())
 					return false;
 
-				if (currentType(DLLexerKernel.TYPE_SEMICOLON))
+				if (currentType(DLLexer.TYPE_SEMICOLON))
 				{
 					nextToken();
-					stackTop.put(currentName.peek(),currentValue.peek());
-					currentName.pop();
-					currentValue.pop();
+					if (match == DLProjection.SELECTED)
+						handler.field(currentName.pop(), currentValue.pop());
+					else
+					{
+						currentName.pop();
+						currentValue.pop();
+					}
 					return true;
 				}
 
-				pushStruct(stackTop.putStruct(currentName.peek()));
-				stackTop.set(currentValue.pop());
+				startStruct(currentName.peek(), currentValue.pop(), match);
 				
 				return StatementEndOrStruct();
 			}
@@ -414,49 +1780,61 @@ public class DLReader
 		 */
 		private boolean StatementEndOrStruct()
 		{
-			if (matchType(DLLexerKernel.TYPE_SEMICOLON))
-			{
-				popStruct();
-				currentName.pop();
-				return true;
-			}
-			
-			else if (matchType(DLLexerKernel.TYPE_LBRACE))
+			while (true)
 			{
-				if (!InnerStructList())
-					return false;
+				if (matchType(DLLexer.TYPE_SEMICOLON))
+				{
+					endStruct();
+					currentName.pop();
+					return true;
+				}
 				
-				if (!matchType(DLLexerKernel.TYPE_RBRACE))
+				else if (currentType(DLLexer.TYPE_LBRACE))
 				{
-					addErrorMessage("Expected '{'");
-					return false;
+					if (lazyBuilder != null)
+					{
+						if (!deferBody())
+							return false;
+					}
+					else
+					{
+						nextToken();
+						
+						if (!InnerStructList())
+							return false;
+						
+						if (!matchType(DLLexer.TYPE_RBRACE))
+						{
+							addErrorMessage("Expected '{'");
+							return false;
+						}
+					}
+					
+					endStruct();
+					currentName.pop();
+					return true;
 				}
 				
-				popStruct();
-				currentName.pop();
-				return true;
-			}
-			
-			// lookahead for <InheritClause>
-			else if (currentType(DLLexerKernel.TYPE_COLON))
-			{
-				if (!InheritClause())
-					return false;
+				// lookahead for <InheritClause>
+				else if (currentType(DLLexer.TYPE_COLON))
+				{
+					if (!InheritClause())
+						return false;
+				}
 				
-				return StatementEndOrStruct();
-			}
-			
-			// lookahead for <ArchetypeClause>
-			else if (currentType(DLLexerKernel.TYPE_LPAREN))
-			{
-				if (!ArchetypeClause())
-					return false;
+				// lookahead for <ArchetypeClause>
+				else if (currentType(DLLexer.TYPE_LPAREN))
+				{
+					if (!ArchetypeClause())
+						return false;
+				}
 				
-				return StatementEndOrStruct();
+				else
+				{
+					addErrorMessage("Expected ';' '(' ')' or ':'");
+					return false;
+				}
 			}
-			
-			addErrorMessage("Expected ';' '(' ')' or ':'");
-			return false;
 		}
 		
 		/*
@@ -464,48 +1842,31 @@ public class DLReader
 		 */
 		private boolean InheritClause()
 		{
-			if (!matchType(DLLexerKernel.TYPE_COLON))
+			if (!matchType(DLLexer.TYPE_COLON))
 			{
 				addErrorMessage("Expected ';'");
 				return false;
 			}
 			
-			if (!currentType(DLLexerKernel.TYPE_IDENTIFIER))
+			if (!currentType(DLLexer.TYPE_IDENTIFIER))
 			{
 				addErrorMessage("Expected identifier.");
 				return false;
 			}
 			
-			currentName.push(currentToken().getLexeme());
+			currentName.push(lexer.getLexeme());
 			nextToken();
 		
 			if (!Value())
 				return false;
 		
-			String structName = currentName.peek();
+			String structName = currentName.pop();
 			DLValue dlv = currentValue.pop();
-			DLStruct found = null;
-			
-			DLStruct last = popStruct();
-			
-			Queue<DLStruct> structList = stackTop.get(structName);
-			if (structList != null) for (DLStruct dls : structList)
-				if (dls.getValue() != null && dls.getValue().equals(dlv))
-					found = dls;
 			
-			currentName.pop();
-			
-			pushStruct(last);
-			
-			if (found != null)
-			{
-				DLValue v = stackTop.getValue();
-				found.copyInto(stackTop);
-				stackTop.set(v);
-			}
-			else
-			{
-				addErrorMessage("The struct that this struct is supposed to inherit data from, "+(structName)+" "+dlv.toString()+", can't be found.");
+			try {
+				handler.inherit(structName, dlv);
+			} catch (DLParseException e) {
+				addErrorMessage(e.getMessage());
 				return false;
 			}
 		
@@ -517,7 +1878,7 @@ public class DLReader
 		 */
 		private boolean ArchetypeClause()
 		{
-			if (!matchType(DLLexerKernel.TYPE_LPAREN))
+			if (!matchType(DLLexer.TYPE_LPAREN))
 			{
 				addErrorMessage("Expected '('");
 				return false;
@@ -528,58 +1889,82 @@ public class DLReader
 			if (!ValueList())
 				return false;
 			
-			if (!matchType(DLLexerKernel.TYPE_RPAREN))
+			if (!matchType(DLLexer.TYPE_RPAREN))
 			{
 				addErrorMessage("Expected ')'");
 				return false;
 			}
 			
 			String archName = currentName.peek();
-			String[] params = archetypeTable.get(archName);
+			DLArchetype archetype = archetype(archName);
 			
-			if (params == null)
+			if (archetype == null)
 			{
 				addErrorMessage("Archetype '"+archName+"' was not declared.");
 				return false;
 			}
 		
-			if (currentValue.size() - startSize > params.length)
+			String[] params = archetype.fields;
+			int count = currentValue.size() - startSize;
+			if (count > params.length)
 			{
 				addErrorMessage("Archetype '"+archName+"' requires "+params.length+" values (or less) to complete statement. Too many values provided.");
 				return false;
 			}
 			
-			int i = currentValue.size() - startSize - 1; //params.length-1;
+			if (slots.length < count)
+				slots = new DLValue[Math.max(count, slots.length * 2)];
+			int i = count - 1;
 			while (i >= 0)
+				slots[i--] = currentValue.pop();
+			
+			// every field is selected: set the slots straight into the struct.
+			if (structBuilder != null && (projection == null || pathMatch[depth] == DLProjection.SELECTED))
+				structBuilder.archetype(archetype, slots, count);
+			else for (i = 0; i < count; i++)
 			{
-				stackTop.put(params[i],currentValue.pop());
-				i--;
+				if (match(params[i]) == DLProjection.SELECTED)
+					handler.field(params[i], slots[i]);
 			}
 			
+			Arrays.fill(slots, 0, count, null);
 			return true;
 		}
+		
+		/**
+		 * Returns the archetype to use for a name: the one declared in the source, 
+		 * else the one in the shared registry, or null if there is none.
+		 */
+		private DLArchetype archetype(String name)
+		{
+			if (lastArchetype != null && lastArchetype.name.equals(name))
+				return lastArchetype;
+			
+			DLArchetype out = archetypeTable.get(name);
+			if (out == null && archetypeRegistry != null)
+				out = archetypeRegistry.get(name);
+			if (out != null)
+				lastArchetype = out;
+			return out;
+		}
 
 		// <IDList> :=	<ID> <IDList'>
+		// <IDList'> :=	"," <IDList> |
+		//				[E]
 		private boolean IDList()
 		{
-			if (currentType(DLLexerKernel.TYPE_IDENTIFIER))
+			do
 			{
-				currentName.push(currentToken().getLexeme());
+				if (!currentType(DLLexer.TYPE_IDENTIFIER))
+				{
+					addErrorMessage("Expected archetype field declaration.");
+					return false;
+				}
+				
+				currentName.push(lexer.getLexeme());
 				nextToken();
-				return IDListPrime();
-			}
+			} while (matchType(DLLexer.TYPE_COMMA));
 		
-			addErrorMessage("Expected archetype field declaration.");
-			return false;
-		}
-
-		// <IDList'> :=	"," <IDList> |
-		//				[E]
-		private boolean IDListPrime()
-		{
-			if (matchType(DLLexerKernel.TYPE_COMMA))
-				return IDList();
-					
 			return true;
 		}
 
@@ -589,12 +1974,12 @@ public class DLReader
 		// Pushes a value onto the value stack.
 		private boolean Value()
 		{
-			if (matchType(DLLexerKernel.TYPE_LBRACK))
+			if (matchType(DLLexer.TYPE_LBRACK))
 			{
 				if (!ArrayValues())
 					return false;
 				
-				if (!matchType(DLLexerKernel.TYPE_RBRACK))
+				if (!matchType(DLLexer.TYPE_RBRACK))
 				{
 					addErrorMessage("Expected ']'");
 					return false;
@@ -603,15 +1988,16 @@ public class DLReader
 				return true;
 			}
 			
-			else if (currentType(DLLexerKernel.TYPE_STRING))
+			else if (currentType(DLLexer.TYPE_STRING))
 			{
-				currentValue.push(new DLValue(currentToken().getLexeme()));
+				currentValue.push(new DLValue(lexer.getLexeme()));
 				nextToken();
 				return true;
 			}
 			
 			else if (Number())
 			{
+				currentValue.push(integer ? new DLValue(integerNumber) : new DLValue(number));
 				return true;
 			}
 
@@ -620,26 +2006,20 @@ public class DLReader
 		}
 		
 		// <ValueList> :=	<Value> <ValueListPrime>
+		// <ValueListPrime> :=	"," <Value> <ValueListPrime> |
+		//						[E]
 		private boolean ValueList()
 		{
 			if (!Value())
 				return false;
-			return ValueListPrime();
-		}
-		
-		// <ValueListPrime> :=	"," <Value> <ValueListPrime> |
-		//						[E]
-		private boolean ValueListPrime()
-		{
-			if (matchType(DLLexerKernel.TYPE_COMMA))
+			
+			while (matchType(DLLexer.TYPE_COMMA))
 			{
 				if (!Value())
 				{
 					addErrorMessage("Expected value in value list.");
 					return false;
 				}
-				
-				return ValueListPrime();
 			}
 			
 			return true;
@@ -647,36 +2027,45 @@ public class DLReader
 		
 		// <ArrayValues> :=	<STRING> <StringArray> |
 		//					<Number> <NumberArray>
+		// Collects the values in the array buffer, then pushes them as one value.
 		private boolean ArrayValues()
 		{
-			if (currentType(DLLexerKernel.TYPE_STRING))
+			arrayBuffer.clear();
+			
+			if (currentType(DLLexer.TYPE_STRING))
 			{
-				currentValue.push(new DLValue(currentToken().getLexeme()));
+				arrayBuffer.add(lexer.getLexeme());
 				nextToken();
-				return StringArray();
+				if (!StringArray())
+					return false;
+				currentValue.push(arrayBuffer.toStringValue());
+				return true;
 			}
 			
 			if (!Number())
 				return false;
 			
-			return NumberArray();
+			addNumber();
+			if (!NumberArray())
+				return false;
+			currentValue.push(arrayBuffer.toNumberValue());
+			return true;
 		}
 
 		// <StringArray> :=	"," <String> <StringArray> |
 		//					[E]
 		private boolean StringArray()
 		{
-			if (matchType(DLLexerKernel.TYPE_COMMA))
+			while (matchType(DLLexer.TYPE_COMMA))
 			{
-				if (!currentType(DLLexerKernel.TYPE_STRING))
+				if (!currentType(DLLexer.TYPE_STRING))
 				{
 					addErrorMessage("Expected string in string array.");
 					return false;
 				}
 				
-				currentValue.peek().append(currentToken().getLexeme());
+				arrayBuffer.add(lexer.getLexeme());
 				nextToken();
-				return StringArray();
 			}
 			
 			return true;
@@ -686,15 +2075,12 @@ public class DLReader
 		//					[E]
 		private boolean NumberArray()
 		{
-			if (matchType(DLLexerKernel.TYPE_COMMA))
+			while (matchType(DLLexer.TYPE_COMMA))
 			{
 				if (!Number())
 					return false;
 				
-				DLValue val = currentValue.pop();
-				currentValue.peek().append(val.getDouble());
-				
-				return NumberArray();
+				addNumber();
 			}
 			
 			return true;
@@ -702,9 +2088,10 @@ public class DLReader
 		
 		// <Number> :=	"-" [NumberToken] |
 		//				[NumberToken]
+		// Sets the read number.
 		private boolean Number()
 		{
-			if (matchType(DLLexerKernel.TYPE_MINUS))
+			if (matchType(DLLexer.TYPE_MINUS))
 				return NumberToken(true);
 			
 			return NumberToken(false);
@@ -715,9 +2102,17 @@ public class DLReader
 		{
 			int n = negate ? -1 : 1;
 			
-			if (currentType(DLLexerKernel.TYPE_NUMBER) || currentType(DLLexerKernel.TYPE_FLOAT))
+			if (currentType(DLLexer.TYPE_NUMBER) || currentType(DLLexer.TYPE_FLOAT))
 			{
-				currentValue.push(new DLValue(n*Double.parseDouble(currentToken().getLexeme())));
+				integer = lexer.isLong(negate);
+				if (integer)
+					integerNumber = lexer.getLong(negate);
+				// -0 stays a double, to keep its sign.
+				if (!integer || (negate && integerNumber == 0L))
+				{
+					integer = false;
+					number = n*lexer.getNumber();
+				}
 				nextToken();
 				return true;
 			}
@@ -726,19 +2121,132 @@ public class DLReader
 			return false;
 		}
 		
-		private void pushStruct(DLStruct dls)
+		// Adds the last number read to the array buffer.
+		private void addNumber()
 		{
-			structStack.push(dls);
-			stackTop = structStack.peek();
+			if (integer)
+				arrayBuffer.add(integerNumber);
+			else
+				arrayBuffer.add(number);
 		}
 		
-		private DLStruct popStruct()
+		/*
+		 * Returns how a statement or field with the provided name, in the current struct,
+		 * is read under the projection.
+		 */
+		private int match(String name)
 		{
-			DLStruct returned = structStack.pop();
-			stackTop = structStack.peek();
-			return returned;
+			if (projection == null || pathMatch[depth] == DLProjection.SELECTED)
+				return DLProjection.SELECTED;
+			path[depth] = name;
+			return projection.match(path, depth + 1);
 		}
-
+		
+		private void startStruct(String name, DLValue value, int match)
+		{
+			depth++;
+			if (projection != null)
+			{
+				if (depth == pathMatch.length)
+				{
+					String[] np = new String[path.length * 2];
+					System.arraycopy(path, 0, np, 0, path.length);
+					path = np;
+					int[] nm = new int[pathMatch.length * 2];
+					System.arraycopy(pathMatch, 0, nm, 0, pathMatch.length);
+					pathMatch = nm;
+				}
+				path[depth - 1] = name;
+				pathMatch[depth] = match;
+			}
+			handler.startStruct(name, value);
+		}
+		
+		private void endStruct()
+		{
+			depth--;
+			handler.endStruct();
+		}
+		
+		/*
+		 * Defers the reading of the current struct's body to the first time it is accessed.
+		 * The current token is the body's opening brace. 
+		 */
+		private boolean deferBody()
+		{
+			DLLexer.Input body = lexer.deferBlock();
+			if (body == null)
+			{
+				addErrorMessage("Expected '}'");
+				return false;
+			}
+			
+			String[] bodyPath = null;
+			int bodyMatch = DLProjection.SELECTED;
+			if (projection != null)
+			{
+				bodyPath = new String[depth];
+				System.arraycopy(path, 0, bodyPath, 0, depth);
+				bodyMatch = pathMatch[depth];
+			}
+			
+			lazyBuilder.current().setLazyBody(new DLLazyBody(DLReader.this, body, archetypeTable, projection, bodyPath, bodyMatch));
+			tableShared = true;
+			return true;
+		}
+		
+		/*
+		 * Skips the rest of a statement that the projection does not read,
+		 * without building any values. 
+		 */
+		private boolean skipStatement()
+		{
+			while (true)
+			{
+				if (matchType(DLLexer.TYPE_SEMICOLON))
+					return true;
+				
+				if (matchType(DLLexer.TYPE_LBRACE))
+				{
+					if (lexer.skipBlock())
+						return true;
+					addErrorMessage("Expected '}'");
+					return false;
+				}
+				
+				if (lexer.isEnd())
+				{
+					addErrorMessage("Expected ';' or '{'");
+					return false;
+				}
+				
+				nextToken();
+			}
+		}
+		
+		private void nextToken()
+		{
+			lexer.nextToken();
+		}
+		
+		private boolean currentType(int type)
+		{
+			return lexer.isType(type);
+		}
+		
+		private boolean matchType(int type)
+		{
+			if (!lexer.isType(type))
+				return false;
+			lexer.nextToken();
+			return true;
+		}
+		
+		private void addErrorMessage(String message)
+		{
+			errors.enqueue(lexer.getErrorMessage(message));
+		}
+		
 	}
 	
 }
@@ -0,0 +1,493 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a database read from a directory tree of files up to date as the files change.
+ * <p>
+ * Each file in the tree whose path matches a glob pattern is read on its own, as by
+ * {@link DLReader#read(Path)}, and the reloader remembers the top-level fields and structs that
+ * each one read, and the files that it included. The files are watched with a {@link WatchService},
+ * and when files change, only the changed files and the files that include them are read again.
+ * A new root struct is then put together from every file's top-level fields and structs,
+ * in path order, and published to {@link #getRoot()} and the listeners at once.
+ * </p>
+ * <p>
+ * The structs read from unchanged files are shared between published roots, so roots must be
+ * treated as read-only. The reader used should not read lazily, since lazily read structs are
+ * not safe to access from multiple threads. Reading structs read with prototype inheritance
+ * does not change them, so the reader can use it. Includes are tracked through
+ * {@link DLReader#getIncludeKey(String, String)}'s way of resolving them, so only included
+ * files (and not other resources) are watched.
+ * </p>
+ * <p>
+ * If a file can't be read after it changes, the listeners are told, and what it read
+ * before is kept until it is fixed.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ */
+public class DLReloader implements Closeable
+{
+	/** Default time to wait for more changes before reloading, in milliseconds. */
+	public static final long DEFAULT_DELAY = 100L;
+
+	/**
+	 * Receives the roots published by a {@link DLReloader}.
+	 * Listeners are called on the reloader's watch thread.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called when a new root has been published.
+		 * @param root the new root.
+		 * @param changed the files that were read again, or removed, in path order.
+		 */
+		public void reloaded(DLStruct root, Path[] changed);
+
+		/**
+		 * Called when a changed file can't be read.
+		 * What it read before is kept in published roots.
+		 * @param path the file.
+		 * @param e the exception thrown, usually an {@link IOException} or a {@link DLParseException}.
+		 */
+		public void failed(Path path, Exception e);
+	}
+
+	/** The reader to read with. */
+	private DLReader reader;
+	/** The root directory. */
+	private Path root;
+	/** Matcher for file paths, relative to the root. */
+	private PathMatcher matcher;
+	/** The time to wait for more changes, in milliseconds. */
+	private long delay;
+	/** The published root. */
+	private AtomicReference<DLStruct> snapshot;
+	/** The listeners. */
+	private CopyOnWriteArrayList<Listener> listeners;
+
+	/** What each file read, in path order. */
+	private TreeMap<Path, Source> sources;
+	/** The directories being watched. */
+	private Set<Path> watched;
+	/** The watch service. */
+	private WatchService watcher;
+	/** The watch thread. */
+	private Thread thread;
+	/** Set when closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new reloader. Nothing is read until {@link #start()} is called.
+	 * @param reader the reader to read files with.
+	 * @param root the root directory to search.
+	 * @param glob the glob pattern that file paths must match, relative to the root,
+	 * 		like <code>**.dl</code> for every <code>.dl</code> file in the tree. See {@link java.nio.file.FileSystem#getPathMatcher(String)}.
+	 * @throws NullPointerException if any object is null.
+	 */
+	public DLReloader(DLReader reader, Path root, String glob)
+	{
+		if (reader == null)
+			throw new NullPointerException("reader");
+		this.reader = reader;
+		this.root = root.toAbsolutePath().normalize();
+		this.matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+		this.delay = DEFAULT_DELAY;
+		this.snapshot = new AtomicReference<DLStruct>(new DLStruct());
+		this.listeners = new CopyOnWriteArrayList<Listener>();
+		this.sources = new TreeMap<Path, Source>();
+		this.watched = new HashSet<Path>();
+		this.watcher = null;
+		this.thread = null;
+		this.closed = false;
+	}
+
+	/**
+	 * Sets how long to wait for more changes after a change before reloading,
+	 * so that a burst of changes, like a deploy, is reloaded at once.
+	 * @param millis the time in milliseconds.
+	 * @see #DEFAULT_DELAY
+	 */
+	public void setDelay(long millis)
+	{
+		this.delay = millis;
+	}
+
+	/**
+	 * Returns how long this waits for more changes after a change before reloading, in milliseconds.
+	 */
+	public long getDelay()
+	{
+		return delay;
+	}
+
+	/**
+	 * Adds a listener to tell about new roots and files that can't be read.
+	 */
+	public void addListener(Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener.
+	 */
+	public void removeListener(Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns the last published root.
+	 * Before {@link #start()} is called, this is an empty struct.
+	 */
+	public DLStruct getRoot()
+	{
+		return snapshot.get();
+	}
+
+	/**
+	 * Reads every matching file in the tree, publishes the first root,
+	 * and starts watching for changes on a new daemon thread.
+	 * This should only be called once.
+	 * @throws IOException if the tree can't be searched or watched, or a file can't be read.
+	 * @throws DLParseException if a file contains a parse error.
+	 * @throws IllegalStateException if this was already started or closed.
+	 */
+	public void start() throws IOException
+	{
+		if (closed || watcher != null)
+			throw new IllegalStateException("Reloader was already started.");
+
+		watcher = root.getFileSystem().newWatchService();
+		try {
+			List<Path> files = new ArrayList<Path>();
+			register(root, files);
+			Path[] paths = files.toArray(new Path[files.size()]);
+			FutureTask<Source>[] reads = read(paths);
+			for (int i = 0; i < paths.length; i++)
+			{
+				Source source = DLReader.join(reads[i]);
+				sources.put(paths[i], source);
+				watchIncludes(source);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		} catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+
+		publish(new Path[0]);
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				watch();
+			}
+		}, "DLReloader-" + root);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching for changes. The last published root stays available.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		if (watcher != null)
+			watcher.close();
+	}
+
+	/**
+	 * Waits for changes and reloads until closed.
+	 */
+	private void watch()
+	{
+		while (!closed)
+		{
+			Set<Path> changed = new HashSet<Path>();
+			boolean overflow = false;
+			try {
+				WatchKey key = watcher.take();
+				// keep gathering until things are quiet.
+				while (key != null)
+				{
+					Path dir = (Path)key.watchable();
+					for (WatchEvent<?> event : key.pollEvents())
+					{
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+							overflow = true;
+						else
+							changed.add(dir.resolve((Path)event.context()));
+					}
+					if (!key.reset())
+						watched.remove(dir);
+					key = watcher.poll(delay, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (ClosedWatchServiceException e) {
+				return;
+			}
+
+			try {
+				update(changed, overflow);
+			} catch (IOException e) {
+				fail(root, e);
+			} catch (RuntimeException e) {
+				fail(root, e);
+			}
+		}
+	}
+
+	/**
+	 * Reads changed files and the files that include them again, and publishes a new root.
+	 */
+	private void update(Set<Path> changed, boolean overflow) throws IOException
+	{
+		Set<Path> reread = new TreeSet<Path>();
+		if (overflow)
+		{
+			// events were lost - check everything.
+			List<Path> files = new ArrayList<Path>();
+			register(root, files);
+			reread.addAll(files);
+			reread.addAll(sources.keySet());
+		}
+
+		for (Path path : changed)
+		{
+			if (Files.isDirectory(path))
+			{
+				// new or moved-in directory.
+				if (path.startsWith(root))
+				{
+					List<Path> files = new ArrayList<Path>();
+					register(path, files);
+					reread.addAll(files);
+				}
+				continue;
+			}
+
+			if (matches(path))
+				reread.add(path);
+			for (Map.Entry<Path, Source> entry : sources.entrySet())
+				if (entry.getValue().includes.contains(path))
+					reread.add(entry.getKey());
+		}
+
+		if (reread.isEmpty())
+			return;
+
+		List<Path> updated = new ArrayList<Path>();
+		List<Path> existing = new ArrayList<Path>();
+		for (Path path : reread)
+		{
+			if (Files.isRegularFile(path))
+				existing.add(path);
+			else if (sources.remove(path) != null)
+				updated.add(path);
+		}
+
+		Path[] paths = existing.toArray(new Path[existing.size()]);
+		FutureTask<Source>[] reads = read(paths);
+		for (int i = 0; i < paths.length; i++)
+		{
+			try {
+				Source source = DLReader.join(reads[i]);
+				sources.put(paths[i], source);
+				watchIncludes(source);
+				updated.add(paths[i]);
+			} catch (IOException e) {
+				fail(paths[i], e);
+			} catch (RuntimeException e) {
+				fail(paths[i], e);
+			}
+		}
+
+		if (!updated.isEmpty())
+		{
+			Path[] out = updated.toArray(new Path[updated.size()]);
+			Arrays.sort(out);
+			publish(out);
+		}
+	}
+
+	/**
+	 * Starts reading files on the reader's asynchronous executor.
+	 */
+	private FutureTask<Source>[] read(Path[] paths)
+	{
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		FutureTask<Source>[] out = new FutureTask[paths.length];
+		for (int i = 0; i < paths.length; i++)
+		{
+			final Path path = paths[i];
+			out[i] = new FutureTask<Source>(new Callable<Source>()
+			{
+				@Override
+				public Source call() throws IOException
+				{
+					Source out = new Source();
+					reader.apply(path, out.struct, out.includes);
+					return out;
+				}
+			});
+			reader.getAsyncExecutor().execute(out[i]);
+		}
+		return out;
+	}
+
+	/**
+	 * Puts a new root together from what every file read, and publishes it.
+	 */
+	private void publish(Path[] changed)
+	{
+		DLStruct out = new DLStruct();
+		for (Source source : sources.values())
+			out.share(source.struct);
+		snapshot.set(out);
+
+		for (Listener listener : listeners)
+		{
+			try {
+				listener.reloaded(out, changed);
+			} catch (RuntimeException e) {
+				// don't let a listener stop the others.
+			}
+		}
+	}
+
+	/**
+	 * Tells the listeners that a file can't be read.
+	 */
+	private void fail(Path path, Exception e)
+	{
+		for (Listener listener : listeners)
+		{
+			try {
+				listener.failed(path, e);
+			} catch (RuntimeException ex) {
+				// don't let a listener stop the others.
+			}
+		}
+	}
+
+	/**
+	 * Returns true if a file is in the tree and matches the pattern.
+	 */
+	private boolean matches(Path path)
+	{
+		return path.startsWith(root) && matcher.matches(root.relativize(path));
+	}
+
+	/**
+	 * Watches a directory and every directory in it, and adds the matching files in them to a list.
+	 */
+	private void register(Path dir, final Collection<Path> files) throws IOException
+	{
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+		{
+			@Override
+			public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException
+			{
+				watchDirectory(d);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+			{
+				if (attrs.isRegularFile() && matches(file))
+					files.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Watches the directories of a file's includes, if they aren't already.
+	 */
+	private void watchIncludes(Source source) throws IOException
+	{
+		for (Path path : source.includes)
+		{
+			Path dir = path.getParent();
+			if (dir != null && Files.isDirectory(dir))
+				watchDirectory(dir);
+		}
+	}
+
+	/**
+	 * Watches a directory, if it isn't already.
+	 */
+	private void watchDirectory(Path dir) throws IOException
+	{
+		if (watched.add(dir))
+		{
+			dir.register(watcher,
+				StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.ENTRY_DELETE
+			);
+		}
+	}
+
+	/**
+	 * What a file read.
+	 */
+	private static class Source
+	{
+		/** The top-level fields and structs read. */
+		private DLStruct struct;
+		/** The files included while reading, in any depth. */
+		private Set<Path> includes;
+
+		Source()
+		{
+			this.struct = new DLStruct();
+			this.includes = ConcurrentHashMap.<Path>newKeySet();
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.blackrook.commons.hash.HashMap;
+
+/**
+ * The layout of a {@link DLStruct}'s fields: their names, in the order they were added,
+ * each at the index of its value in the struct's slot array.
+ * <p>
+ * Shapes are shared by every struct with the same field names added in the same order,
+ * and form a tree that starts at {@link #EMPTY}: adding a field to a struct moves it to the
+ * child shape for that name, which is made the first time it is needed and reused after that.
+ * Shapes are never changed after they are made, except for their lists of children,
+ * so they can be shared between threads.
+ * </p>
+ * <p>
+ * To keep the tree from growing without bound, a shape has at most {@link #MAX_FIELDS} fields
+ * (structs that would need more keep their fields in a hash table instead), and keeps at most 
+ * {@link #MAX_CHILDREN} children, dropping one to make room for a new one. Once {@link #MAX_SHAPES} 
+ * shapes have been made, the whole tree is dropped and started over. Dropped shapes are still used 
+ * by the structs that have them, and are freed along with those structs, but are no longer shared 
+ * with new ones. So every struct gets a shape no matter what was read before it, and only how 
+ * much is shared depends on that.
+ * </p>
+ * @author Matthew Tropiano
+ */
+final class DLShape
+{
+	/** The most fields that a shape can have. */
+	static final int MAX_FIELDS = 64;
+	/** The most children that a shape keeps. */
+	static final int MAX_CHILDREN = 64;
+	/** The most shapes that the tree has before it is started over. */
+	static final int MAX_SHAPES = 1 << 16;
+	/** Shapes with more fields than this find names through a hash table instead of a scan. */
+	private static final int SCAN_FIELDS = 8;
+
+	/** The shape with no fields. */
+	static final DLShape EMPTY = new DLShape(new String[0]);
+	/** The number of shapes made since the tree was last started over. */
+	private static final AtomicInteger SHAPE_COUNT = new AtomicInteger();
+
+	/** The field names, by index. */
+	final String[] names;
+	/** The hash codes of the field names, by index. */
+	private final int[] hashes;
+	/** The indices of the field names, for shapes with many fields, or null. */
+	private final HashMap<String, Integer> indices;
+
+	/** The child shapes, by added field name. */
+	private final ConcurrentHashMap<String, DLShape> children;
+	/** The last child shape found or made, checked before the others. */
+	private volatile DLShape lastChild;
+
+	private DLShape(String[] names)
+	{
+		this.names = names;
+		this.hashes = new int[names.length];
+		for (int i = 0; i < names.length; i++)
+			hashes[i] = names[i].hashCode();
+		if (names.length > SCAN_FIELDS)
+		{
+			indices = new HashMap<String, Integer>(names.length * 2);
+			for (int i = 0; i < names.length; i++)
+				indices.put(names[i], i);
+		}
+		else
+			indices = null;
+		this.children = new ConcurrentHashMap<String, DLShape>(4);
+		this.lastChild = null;
+	}
+
+	/**
+	 * Returns the number of fields in this shape.
+	 */
+	int size()
+	{
+		return names.length;
+	}
+
+	/**
+	 * Returns the index of a field, or -1 if this shape doesn't have it.
+	 */
+	int indexOf(String name)
+	{
+		if (indices != null)
+		{
+			Integer out = indices.get(name);
+			return out != null ? out : -1;
+		}
+
+		// names are usually interned, so look for the same String first.
+		for (int i = 0; i < names.length; i++)
+			if (names[i] == name)
+				return i;
+		int hash = name.hashCode();
+		for (int i = 0; i < names.length; i++)
+			if (hashes[i] == hash && names[i].equals(name))
+				return i;
+		return -1;
+	}
+
+	/**
+	 * Returns the shape with this shape's fields plus one more, which this shape must not have,
+	 * or null if it would have too many fields.
+	 */
+	DLShape with(String name)
+	{
+		DLShape last = lastChild;
+		if (last != null && last.names[names.length].equals(name))
+			return last;
+
+		DLShape out = children.get(name);
+		if (out == null)
+		{
+			if (names.length >= MAX_FIELDS)
+				return null;
+			
+			if (SHAPE_COUNT.incrementAndGet() > MAX_SHAPES)
+			{
+				// start over - the old tree is freed as the structs that use it are.
+				SHAPE_COUNT.set(0);
+				EMPTY.children.clear();
+				EMPTY.lastChild = null;
+			}
+			if (children.size() >= MAX_CHILDREN)
+			{
+				// drop another child, so that the first names seen don't keep the rest out.
+				Iterator<String> it = children.keySet().iterator();
+				while (it.hasNext() && children.size() >= MAX_CHILDREN)
+				{
+					it.next();
+					it.remove();
+				}
+			}
+
+			String[] childNames = new String[names.length + 1];
+			System.arraycopy(names, 0, childNames, 0, names.length);
+			childNames[names.length] = name;
+			DLShape made = new DLShape(childNames);
+			out = children.putIfAbsent(name, made);
+			if (out == null)
+				out = made;
+		}
+		lastChild = out;
+		return out;
+	}
+
+}
@@ -0,0 +1,591 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.util.NoSuchElementException;
+
+import com.blackrook.commons.hash.HashMap;
+import com.blackrook.commons.linkedlist.Queue;
+import com.blackrook.commons.linkedlist.Stack;
+
+/**
+ * A cursor-style reader over DL text that hands out one event at a time,
+ * following the same grammar as {@link DLReader}.
+ * <p>
+ * Archetype clauses are expanded into {@link #FIELD} events. Inheritance clauses 
+ * cannot be resolved without a tree, so they are reported as {@link #INHERIT} events.
+ * Whole structures can be passed over with {@link #skipStruct()}, which does not
+ * create values or events for anything inside them.
+ * </p>
+ * <p>
+ * Parse errors are thrown as {@link DLParseException}s as soon as they are found.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ * @see DLReader#createStreamReader(String, java.io.InputStream)
+ */
+public class DLStreamReader
+{
+	/** Event: a structure started. Name is the type, value is the struct value (may be null). */
+	public static final int START_STRUCT = 0;
+	/** Event: a field was read. Name is the field name, value is the field value. */
+	public static final int FIELD = 1;
+	/** Event: a structure ended. Name is the type of the ended structure. */
+	public static final int END_STRUCT = 2;
+	/** Event: the current structure inherits from another. Name is the parent type, value is the parent's value. */
+	public static final int INHERIT = 3;
+	/** Event: an archetype was declared. Name is the archetype name. */
+	public static final int ARCHETYPE_DECL = 4;
+	/** Event: the end of the document was reached. */
+	public static final int END_DOCUMENT = 5;
+	
+	/** No event read yet. */
+	private static final int NO_EVENT = -1;
+	
+	/** The lexer. */
+	private DLLexer lexer;
+	/** Archetypes declared so far. */
+	private HashMap<String, String[]> archetypeTable;
+	/** The shared archetypes to use after the declared ones, or null. */
+	private DLArchetypeRegistry archetypeRegistry;
+	/** Types of the currently open structures. */
+	private Stack<String> structNames;
+	/** Archetype-expanded field names still to be handed out. */
+	private Queue<String> pendingNames;
+	/** Archetype-expanded field values still to be handed out. */
+	private Queue<DLValue> pendingValues;
+	/** If true, the innermost structure is still in its header (clauses before its body or ';'). */
+	private boolean header;
+	/** Buffer for array values. */
+	private DLArrayBuffer arrayBuffer;
+	/** The last number read. */
+	private double number;
+	/** True if the last number read is an integer that fits in a long. */
+	private boolean integer;
+	/** The last number read, if it is an integer. */
+	private long integerNumber;
+	
+	/** Current event. */
+	private int event;
+	/** Current depth. */
+	private int depth;
+	/** Current event name. */
+	private String name;
+	/** Current event value. */
+	private DLValue value;
+	/** Current archetype fields. */
+	private String[] archetypeFields;
+	
+	/**
+	 * Creates a new stream reader.
+	 * @param archetypeRegistry the shared archetypes to use after the declared ones, or null.
+	 * @param lexer the lexer to read tokens from.
+	 */
+	DLStreamReader(DLArchetypeRegistry archetypeRegistry, DLLexer lexer)
+	{
+		this.archetypeRegistry = archetypeRegistry;
+		this.lexer = lexer;
+		this.archetypeTable = new HashMap<String, String[]>();
+		this.structNames = new Stack<String>();
+		this.pendingNames = new Queue<String>();
+		this.pendingValues = new Queue<DLValue>();
+		this.header = false;
+		this.arrayBuffer = new DLArrayBuffer();
+		this.event = NO_EVENT;
+		this.depth = 0;
+	}
+	
+	/**
+	 * Returns true if there are more events to read (the current event is not {@link #END_DOCUMENT}).
+	 */
+	public boolean hasNext()
+	{
+		return event != END_DOCUMENT;
+	}
+	
+	/**
+	 * Advances to the next event.
+	 * @return the new event type.
+	 * @throws NoSuchElementException if the end of the document was already reached.
+	 * @throws DLParseException if a parse error is found.
+	 */
+	public int next()
+	{
+		switch (event)
+		{
+			case NO_EVENT:
+				lexer.nextToken();
+				if (lexer.isEnd())
+					throw error("Expected valid structure.");
+				break;
+			case END_DOCUMENT:
+				throw new NoSuchElementException("End of document reached.");
+			case END_STRUCT:
+				depth--;
+				break;
+		}
+		
+		name = null;
+		value = null;
+		archetypeFields = null;
+
+		if (!pendingNames.isEmpty())
+			return setEvent(FIELD, pendingNames.dequeue(), pendingValues.dequeue());
+		else if (header)
+			return nextHeader();
+		else
+			return nextBody();
+	}
+	
+	/**
+	 * Skips the rest of the current structure, without creating values or events for its contents.
+	 * If the current event is {@link #START_STRUCT}, that structure is skipped, otherwise
+	 * the innermost open structure is. Afterward, the current event is the {@link #END_STRUCT}
+	 * for the skipped structure.
+	 * @throws IllegalStateException if there is no open structure.
+	 * @throws DLParseException if the end of the document is reached before the structure's end.
+	 */
+	public void skipStruct()
+	{
+		if (event == END_STRUCT)
+		{
+			depth--;
+			event = NO_EVENT;
+		}
+		
+		if (depth == 0)
+			throw new IllegalStateException("Not inside a struct.");
+		
+		pendingNames.clear();
+		pendingValues.clear();
+		
+		if (header)
+		{
+			while (!matchType(DLLexer.TYPE_SEMICOLON))
+			{
+				if (matchType(DLLexer.TYPE_LBRACE))
+				{
+					if (!lexer.skipBlock())
+						throw error("Expected '}'");
+					break;
+				}
+				if (lexer.isEnd())
+					throw error("Expected ';' or '{'");
+				lexer.nextToken();
+			}
+			header = false;
+		}
+		else if (!lexer.skipBlock())
+			throw error("Expected '}'");
+
+		setEvent(END_STRUCT, structNames.pop(), null);
+	}
+
+	/**
+	 * Returns the current event type.
+	 */
+	public int getEventType()
+	{
+		return event;
+	}
+	
+	/**
+	 * Returns the number of structures that are open at the current event.
+	 * A structure counts as open from its {@link #START_STRUCT} through its {@link #END_STRUCT}.
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+	
+	/**
+	 * Returns the name associated with the current event.
+	 * This is the structure type, field name, inherited type or archetype name, depending on the event.
+	 */
+	public String getName()
+	{
+		return name;
+	}
+	
+	/**
+	 * Returns the value associated with the current event, or null if none.
+	 */
+	public DLValue getValue()
+	{
+		return value;
+	}
+	
+	/**
+	 * Returns the field names of the declared archetype, if the current event is {@link #ARCHETYPE_DECL}.
+	 */
+	public String[] getArchetypeFields()
+	{
+		return archetypeFields != null ? archetypeFields.clone() : null;
+	}
+	
+	/**
+	 * Returns the name of the stream that the reader is currently on.
+	 */
+	public String getStreamName()
+	{
+		return lexer.getStreamName();
+	}
+	
+	/**
+	 * Returns the line number that the reader is currently on.
+	 */
+	public int getLine()
+	{
+		return lexer.getLine();
+	}
+	
+	/**
+	 * Returns the current value as a double.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as a double or NaN if there is no value.
+	 */
+	public double getDouble()
+	{
+		return value != null ? value.getDouble() : Double.NaN;
+	}
+	
+	/**
+	 * Returns the current value as an array of doubles.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as doubles or null if there is no value.
+	 */
+	public double[] getDoubleArray()
+	{
+		return value != null ? value.getDoubleArray() : null;
+	}
+	
+	/**
+	 * Returns the current value as a float.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as a float or NaN if there is no value.
+	 */
+	public float getFloat()
+	{
+		return value != null ? value.getFloat() : Float.NaN;
+	}
+	
+	/**
+	 * Returns the current value as a long.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as a long or 0 if there is no value.
+	 */
+	public long getLong()
+	{
+		return value != null ? value.getLong() : 0L;
+	}
+	
+	/**
+	 * Returns the current value as an array of longs.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as longs or null if there is no value.
+	 */
+	public long[] getLongArray()
+	{
+		return value != null ? value.getLongArray() : null;
+	}
+	
+	/**
+	 * Returns the current value as an int.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as an int or 0 if there is no value.
+	 */
+	public int getInt()
+	{
+		return value != null ? value.getInt() : 0;
+	}
+	
+	/**
+	 * Returns the current value as an array of ints.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return the value as ints or null if there is no value.
+	 */
+	public int[] getIntArray()
+	{
+		return value != null ? value.getIntArray() : null;
+	}
+	
+	/**
+	 * Returns the current value as a boolean.
+	 * @throws NumberFormatException	if the value is not numerical or able to be parsed as numerical at all.
+	 * @return true if nonzero number or false if zero or Not-A-Number or there is no value.
+	 */
+	public boolean getBoolean()
+	{
+		return value != null && value.getBoolean();
+	}
+	
+	/**
+	 * Returns the current value as a String.
+	 * @return the value as a String or null if there is no value.
+	 */
+	public String getString()
+	{
+		return value != null ? value.getString() : null;
+	}
+	
+	/**
+	 * Returns the current value as an array of Strings.
+	 * @return the value as Strings or null if there is no value.
+	 */
+	public String[] getStringArray()
+	{
+		return value != null ? value.getStringArray() : null;
+	}
+
+	/*
+	 * <StructList> / <InnerStructList>, one statement at a time.
+	 */
+	private int nextBody()
+	{
+		if (depth > 0 && matchType(DLLexer.TYPE_RBRACE))
+			return setEvent(END_STRUCT, structNames.pop(), null);
+		
+		if (lexer.isEnd())
+		{
+			if (depth > 0)
+				throw error("Expected '}'");
+			return setEvent(END_DOCUMENT, null, null);
+		}
+		
+		if (depth == 0 && matchType(DLLexer.TYPE_PERIOD))
+			return archetypeDecl();
+		
+		if (!currentType(DLLexer.TYPE_IDENTIFIER))
+			throw error(depth > 0 ? "Expected '}'" : "Expected valid structure.");
+		
+		String id = lexer.getLexeme();
+		lexer.nextToken();
+		
+		if (matchType(DLLexer.TYPE_LBRACE))
+			return startStruct(id, null, false);
+		else if (currentType(DLLexer.TYPE_COLON) || currentType(DLLexer.TYPE_LPAREN))
+			return startStruct(id, null, true);
+		
+		DLValue v = readValue();
+		if (matchType(DLLexer.TYPE_SEMICOLON))
+			return setEvent(FIELD, id, v);
+		
+		return startStruct(id, v, true);
+	}
+	
+	/*
+	 * <StatementEndOrStruct>, one clause at a time.
+	 */
+	private int nextHeader()
+	{
+		if (matchType(DLLexer.TYPE_SEMICOLON))
+		{
+			header = false;
+			return setEvent(END_STRUCT, structNames.pop(), null);
+		}
+		else if (matchType(DLLexer.TYPE_LBRACE))
+		{
+			header = false;
+			return nextBody();
+		}
+		else if (matchType(DLLexer.TYPE_COLON))
+		{
+			if (!currentType(DLLexer.TYPE_IDENTIFIER))
+				throw error("Expected identifier.");
+			String id = lexer.getLexeme();
+			lexer.nextToken();
+			return setEvent(INHERIT, id, readValue());
+		}
+		else if (matchType(DLLexer.TYPE_LPAREN))
+		{
+			String archName = structNames.peek();
+			String[] params = archetypeTable.get(archName);
+			DLArchetype shared;
+			if (params == null && archetypeRegistry != null && (shared = archetypeRegistry.get(archName)) != null)
+				params = shared.fields;
+			int count = 0;
+			do {
+				DLValue v = readValue();
+				if (params != null && count < params.length)
+				{
+					pendingNames.enqueue(params[count]);
+					pendingValues.enqueue(v);
+				}
+				count++;
+			} while (matchType(DLLexer.TYPE_COMMA));
+
+			if (!matchType(DLLexer.TYPE_RPAREN))
+				throw error("Expected ')'");
+			if (params == null)
+				throw error("Archetype '"+archName+"' was not declared.");
+			if (count > params.length)
+				throw error("Archetype '"+archName+"' requires "+params.length+" values (or less) to complete statement. Too many values provided.");
+			
+			return setEvent(FIELD, pendingNames.dequeue(), pendingValues.dequeue());
+		}
+		
+		throw error("Expected ';' '(' ')' or ':'");
+	}
+	
+	/*
+	 * "." <ID> <ArchetypeDecl> ";"
+	 */
+	private int archetypeDecl()
+	{
+		if (!currentType(DLLexer.TYPE_IDENTIFIER))
+			throw error("Expected identifier.");
+		String archName = lexer.getLexeme();
+		lexer.nextToken();
+
+		if (!matchType(DLLexer.TYPE_LPAREN))
+			throw error("Expected '('");
+
+		Queue<String> ids = new Queue<String>();
+		do {
+			if (!currentType(DLLexer.TYPE_IDENTIFIER))
+				throw error("Expected archetype field declaration.");
+			ids.enqueue(lexer.getLexeme());
+			lexer.nextToken();
+		} while (matchType(DLLexer.TYPE_COMMA));
+
+		if (!matchType(DLLexer.TYPE_RPAREN))
+			throw error("Expected ')'");
+		if (!matchType(DLLexer.TYPE_SEMICOLON))
+			throw error("Expected ';'");
+		
+		String[] fields = new String[ids.size()];
+		int i = 0;
+		for (String s : ids)
+			fields[i++] = s;
+		archetypeTable.put(archName, fields);
+		if (archetypeRegistry != null)
+			archetypeRegistry.put(new DLArchetype(archName, fields.clone()));
+
+		setEvent(ARCHETYPE_DECL, archName, null);
+		archetypeFields = fields;
+		return event;
+	}
+	
+	/*
+	 * <Value> :=	"[" <ArrayValues> "]" |
+	 *				<STRING> |
+	 *				<Number>
+	 */
+	private DLValue readValue()
+	{
+		if (matchType(DLLexer.TYPE_LBRACK))
+		{
+			DLValue out;
+			arrayBuffer.clear();
+			if (currentType(DLLexer.TYPE_STRING))
+			{
+				arrayBuffer.add(lexer.getLexeme());
+				lexer.nextToken();
+				while (matchType(DLLexer.TYPE_COMMA))
+				{
+					if (!currentType(DLLexer.TYPE_STRING))
+						throw error("Expected string in string array.");
+					arrayBuffer.add(lexer.getLexeme());
+					lexer.nextToken();
+				}
+				out = arrayBuffer.toStringValue();
+			}
+			else
+			{
+				readNumber();
+				addNumber();
+				while (matchType(DLLexer.TYPE_COMMA))
+				{
+					readNumber();
+					addNumber();
+				}
+				out = arrayBuffer.toNumberValue();
+			}
+
+			if (!matchType(DLLexer.TYPE_RBRACK))
+				throw error("Expected ']'");
+			return out;
+		}
+		else if (currentType(DLLexer.TYPE_STRING))
+		{
+			DLValue out = new DLValue(lexer.getLexeme());
+			lexer.nextToken();
+			return out;
+		}
+
+		readNumber();
+		return integer ? new DLValue(integerNumber) : new DLValue(number);
+	}
+	
+	/*
+	 * <Number> :=	"-" [NumberToken] |
+	 *				[NumberToken]
+	 * Sets the read number.
+	 */
+	private void readNumber()
+	{
+		boolean negate = matchType(DLLexer.TYPE_MINUS);
+		if (!currentType(DLLexer.TYPE_NUMBER) && !currentType(DLLexer.TYPE_FLOAT))
+			throw error("Expected numerical value.");
+		integer = lexer.isLong(negate);
+		if (integer)
+			integerNumber = lexer.getLong(negate);
+		// -0 stays a double, to keep its sign.
+		if (!integer || (negate && integerNumber == 0L))
+		{
+			integer = false;
+			double d = lexer.getNumber();
+			number = negate ? -d : d;
+		}
+		lexer.nextToken();
+	}
+	
+	// Adds the last number read to the array buffer.
+	private void addNumber()
+	{
+		if (integer)
+			arrayBuffer.add(integerNumber);
+		else
+			arrayBuffer.add(number);
+	}
+	
+	private int startStruct(String type, DLValue v, boolean inHeader)
+	{
+		structNames.push(type);
+		header = inHeader;
+		depth++;
+		return setEvent(START_STRUCT, type, v);
+	}
+	
+	private int setEvent(int event, String name, DLValue value)
+	{
+		this.event = event;
+		this.name = name;
+		this.value = value;
+		return event;
+	}
+
+	private boolean currentType(int type)
+	{
+		return lexer.isType(type);
+	}
+	
+	private boolean matchType(int type)
+	{
+		if (!lexer.isType(type))
+			return false;
+		lexer.nextToken();
+		return true;
+	}
+
+	private DLParseException error(String message)
+	{
+		return new DLParseException(lexer.getErrorMessage(message));
+	}
+	
+}
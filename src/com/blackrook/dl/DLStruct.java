@@ -10,12 +10,17 @@ package com.blackrook.dl;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.blackrook.commons.Common;
 import com.blackrook.commons.ObjectPair;
 import com.blackrook.commons.hash.HashMap;
 import com.blackrook.commons.hash.HashedQueueMap;
 import com.blackrook.commons.linkedlist.Queue;
+import com.blackrook.commons.linkedlist.Stack;
 
 /**
  * The data structure abstraction for a set of DataLang Structures.
@@ -28,16 +33,30 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	
 	/** Blank queue. */
 	protected static final Queue<DLStruct> BLANK_QUEUE = new Queue<DLStruct>();
+	/** Slots of a struct with no fields. */
+	private static final DLValue[] NO_SLOTS = new DLValue[0];
 	
 	/** Total number of structs. */
 	protected int numStructs;
-	/** The field table. */
-	protected HashMap<String,DLValue> fieldTable;
+	/** The layout of the field slots, or null if the fields are kept in the field table. */
+	private DLShape shape;
+	/** The field values, in the order of the shape's field names. */
+	private DLValue[] slots;
+	/** The field table, used instead of a shape once fields are removed or there are too many, or null. */
+	private HashMap<String,DLValue> fieldTable;
 	
 	/** Total number of fields. */
 	protected int numFields;
 	/** The value associated with this struct. */
 	protected DLValue structValue;
+	/** The unread body of this struct, if its reading was deferred. */
+	private DLLazyBody lazyBody;
+	/** The error from reading the deferred body, if it could not be read. */
+	private DLParseException lazyError;
+	/** The struct that this inherits fields and structs from, or null. */
+	private DLStruct prototype;
+	/** The lists of structs inherited from the prototype that have been read, by type, or null if this has no prototype. */
+	private ConcurrentHashMap<String, Queue<DLStruct>> inheritedLists;
 
 
 	/**
@@ -74,7 +93,290 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public DLStruct(int capacity, float rehash)
 	{
 		super(capacity,rehash);
-		fieldTable = new HashMap<String,DLValue>(capacity,rehash);
+		shape = DLShape.EMPTY;
+		slots = NO_SLOTS;
+		fieldTable = null;
+		lazyBody = null;
+		lazyError = null;
+	}
+	
+	/**
+	 * Sets the unread body of this struct, read the first time that 
+	 * this struct's fields or child structs are accessed.
+	 */
+	void setLazyBody(DLLazyBody body)
+	{
+		lazyBody = body;
+	}
+	
+	/**
+	 * Returns true if this struct's body has been read, false if its reading is still deferred
+	 * or it could not be read. Structs not read lazily are always loaded.
+	 * @see DLReader#setLazy(boolean)
+	 * @since 2.6.0
+	 */
+	public boolean isLoaded()
+	{
+		return lazyBody == null && lazyError == null;
+	}
+	
+	/**
+	 * Reads this struct's body if its reading was deferred.
+	 * This is called by every method that accesses this struct's fields or child structs,
+	 * so this only needs to be called directly before using other {@link HashedQueueMap} methods on this.
+	 * @throws DLParseException if the body contains a parse error. 
+	 * 		This is thrown again on every later access, since the body was only partly read.
+	 * @see DLReader#setLazy(boolean)
+	 * @since 2.6.0
+	 */
+	public void load()
+	{
+		if (lazyBody == null)
+		{
+			if (lazyError != null)
+				throw new DLParseException(lazyError.getMessage(), lazyError);
+			return;
+		}
+		
+		// clear first - reading it adds to this struct.
+		DLLazyBody body = lazyBody;
+		lazyBody = null;
+		try {
+			body.readInto(this);
+		} catch (DLParseException e) {
+			lazyError = e;
+			throw e;
+		}
+	}
+	
+	/**
+	 * Returns the value of one of this struct's own fields, or null if it has none.
+	 */
+	private DLValue ownField(String fieldName)
+	{
+		load();
+		if (shape == null)
+			return fieldTable.get(fieldName);
+		int i = shape.indexOf(fieldName);
+		return i >= 0 ? slots[i] : null;
+	}
+	
+	/**
+	 * Sets one of this struct's own fields, moving it to the next shape if the field is new.
+	 */
+	private void putField(String fieldName, DLValue value)
+	{
+		load();
+		if (shape != null)
+		{
+			int i = shape.indexOf(fieldName);
+			if (i >= 0)
+			{
+				slots[i] = value;
+				return;
+			}
+			
+			DLShape next = shape.with(fieldName);
+			if (next != null)
+			{
+				int n = shape.size();
+				if (slots.length == n)
+					slots = Arrays.copyOf(slots, n < 4 ? n + 1 : n + (n >> 1));
+				slots[n] = value;
+				shape = next;
+				return;
+			}
+			toTable();
+		}
+		fieldTable.put(fieldName, value);
+	}
+	
+	/**
+	 * Removes one of this struct's own fields.
+	 * Shapes only add fields, so this moves the fields to a field table.
+	 */
+	private void removeField(String fieldName)
+	{
+		load();
+		if (shape != null)
+		{
+			if (shape.indexOf(fieldName) < 0)
+				return;
+			toTable();
+		}
+		fieldTable.removeUsingKey(fieldName);
+	}
+	
+	/**
+	 * Moves this struct's fields from its slots to a field table.
+	 */
+	private void toTable()
+	{
+		int n = shape.size();
+		fieldTable = new HashMap<String,DLValue>(Math.max(DEFAULT_CAPACITY, n * 2), DEFAULT_REHASH);
+		for (int i = 0; i < n; i++)
+			fieldTable.put(shape.names[i], slots[i]);
+		shape = null;
+		slots = null;
+	}
+	
+	/**
+	 * Returns this struct's field table, which replaces the <code>fieldTable</code> field 
+	 * that subclasses used before fields were kept by shape. This moves the fields 
+	 * to a table first, so the table that this returns is this struct's own, and changes to it 
+	 * change this struct, but the struct no longer shares a shape afterward.
+	 * @return the table of this struct's own fields, by name.
+	 * @since 2.6.0
+	 * @deprecated Use {@link #put(String, DLValue)}, {@link #getValue(String)} and {@link #getAllFields()}.
+	 */
+	@Deprecated
+	protected HashMap<String,DLValue> getFieldTable()
+	{
+		load();
+		if (shape != null)
+			toTable();
+		return fieldTable;
+	}
+	
+	/**
+	 * Returns the number of this struct's own fields.
+	 */
+	private int ownFieldCount()
+	{
+		load();
+		return shape != null ? shape.size() : fieldTable.size();
+	}
+	
+	/**
+	 * Returns the names of this struct's own fields, in a new array.
+	 */
+	private String[] ownFieldNames()
+	{
+		load();
+		if (shape != null)
+			return shape.names.clone();
+		
+		String[] out = new String[fieldTable.size()];
+		int i = 0;
+		for (ObjectPair<String,DLValue> hp : fieldTable)
+			out[i++] = hp.getKey();
+		return out;
+	}
+	
+	/**
+	 * Sets this struct's own fields on another struct. 
+	 * A struct with no fields yet takes this struct's shape.
+	 * @param copy if true, the values are copied.
+	 */
+	private void putFieldsInto(DLStruct dls, boolean copy)
+	{
+		load();
+		dls.load();
+		if (shape != null && dls.shape == DLShape.EMPTY)
+		{
+			int n = shape.size();
+			DLValue[] out = Arrays.copyOf(slots, n);
+			if (copy) for (int i = 0; i < n; i++)
+				out[i] = out[i].copy();
+			dls.shape = shape;
+			dls.slots = out;
+		}
+		else if (shape != null)
+		{
+			for (int i = 0; i < shape.size(); i++)
+				dls.putField(shape.names[i], copy ? slots[i].copy() : slots[i]);
+		}
+		else for (ObjectPair<String,DLValue> hp : fieldTable)
+			dls.putField(hp.getKey(), copy ? hp.getValue().copy() : hp.getValue());
+	}
+	
+	/**
+	 * Returns one of this struct's fields to change in place, or null if there is none.
+	 * A field read from a prototype is copied into this struct first.
+	 */
+	private DLValue writableField(String fieldName)
+	{
+		DLValue out = ownField(fieldName);
+		if (out == null && prototype != null && (out = field(fieldName)) != null)
+			putField(fieldName, out = out.copy());
+		return out;
+	}
+	
+	/**
+	 * Sets the struct that this inherits fields and structs from.
+	 */
+	void setPrototype(DLStruct prototype)
+	{
+		this.prototype = prototype;
+		this.inheritedLists = prototype != null ? new ConcurrentHashMap<String, Queue<DLStruct>>(4) : null;
+	}
+	
+	/**
+	 * Returns the struct that this struct inherits fields and structs from, or null if it has none.
+	 * <p>
+	 * A struct read with prototype inheritance keeps a reference to the struct that it inherits from,
+	 * instead of a copy of its fields and structs. Fields that this struct doesn't have are read 
+	 * from its prototype (and its prototype's prototype, and so on), and structs of types
+	 * that this struct has none of are read from its prototype. Setting a field on this struct 
+	 * overrides its prototype's. The first time that this struct's structs of a type are gotten or added to, 
+	 * it gets its own list of them, in which each inherited struct is replaced by a new one that has it as 
+	 * its prototype in turn, so changing them does not change the prototype's. Getting them does not 
+	 * change this struct's table of structs, so structs with prototypes can be read from many threads at once. Field values read from 
+	 * a prototype are returned by {@link #getValue(String)} as copies, for the same reason, and appending 
+	 * to one copies it into this struct first. Removing a field from this struct does not remove its 
+	 * prototype's. The prototype itself is shared, so it should not be changed through 
+	 * {@link #getPrototype()} - use {@link #flatten()} to get a copy that can be.
+	 * </p>
+	 * @see DLReader#setPrototypeInheritance(boolean)
+	 * @since 2.6.0
+	 */
+	public DLStruct getPrototype()
+	{
+		return prototype;
+	}
+	
+	/**
+	 * Returns a standalone copy of this struct, with everything that it and its structs 
+	 * inherit through prototypes copied into it. Neither the copy nor its structs have prototypes,
+	 * and they share no structs or field values with this struct. This is the same as {@link #copy()}.
+	 * @see #getPrototype()
+	 * @since 2.6.0
+	 */
+	public DLStruct flatten()
+	{
+		return copy();
+	}
+	
+	/**
+	 * Returns the value of a field of this struct or its prototypes, or null if there is none.
+	 */
+	private DLValue field(String fieldName)
+	{
+		DLStruct s = this;
+		do {
+			DLValue out = s.ownField(fieldName);
+			if (out != null)
+				return out;
+			s = s.prototype;
+		} while (s != null);
+		return null;
+	}
+	
+	/**
+	 * Returns this struct's own list of structs of a type, or null if it has none.
+	 */
+	private Queue<DLStruct> ownStructs(String typename)
+	{
+		load();
+		return super.get(typename);
+	}
+	
+	/**
+	 * Returns true if this struct has no fields or structs of its own.
+	 */
+	boolean isBlank()
+	{
+		return ownFieldCount() == 0 && super.isEmpty();
 	}
 	
 	/**
@@ -84,7 +386,9 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public boolean containsField(String fieldname)
 	{
-		return fieldTable.containsKey(fieldname);
+		if (prototype != null)
+			return field(fieldname) != null;
+		return ownField(fieldname) != null;
 	}
 
 	/**
@@ -180,10 +484,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 			set(null);
 		else
 		{
-			double[] val = new double[value.length];
-			for (int i = 0; i < value.length; i++)
-				val[i] = value[i];
-			set(new DLValue(val));
+			set(new DLValue(value.clone()));
 		}
 	}
 
@@ -214,10 +515,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 			set(null);
 		else
 		{
-			double[] val = new double[value.length];
-			for (int i = 0; i < value.length; i++)
-				val[i] = value[i];
-			set(new DLValue(val));
+			set(new DLValue(value.clone()));
 		}
 	}
 
@@ -740,10 +1038,56 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public String[] getAllFields()
 	{
-		String[] out = new String[fieldTable.size()];
-		int i = 0;
-		for (ObjectPair<String,DLValue> hp : fieldTable)
-			out[i++] = hp.getKey();
+		if (prototype != null)
+		{
+			// prototypes' first, like a copy of them would be.
+			LinkedHashSet<String> names = new LinkedHashSet<String>();
+			Stack<DLStruct> chain = chain();
+			while (!chain.isEmpty())
+				for (String name : chain.pop().ownFieldNames())
+					names.add(name);
+			return names.toArray(new String[names.size()]);
+		}
+		
+		return ownFieldNames();
+	}
+	
+	/**
+	 * Returns the types of all of the structs in this struct in an array of Strings,
+	 * including those read from its prototype.
+	 * @see #getPrototype()
+	 * @since 2.6.0
+	 */
+	public String[] getAllTypes()
+	{
+		LinkedHashSet<String> types = new LinkedHashSet<String>();
+		Stack<DLStruct> chain = chain();
+		while (!chain.isEmpty())
+		{
+			Iterator<String> it = chain.pop().ownTypeIterator();
+			while (it.hasNext())
+				types.add(it.next());
+		}
+		return types.toArray(new String[types.size()]);
+	}
+	
+	/**
+	 * Returns an iterator over the types of this struct's own structs.
+	 */
+	private Iterator<String> ownTypeIterator()
+	{
+		load();
+		return super.keyIterator();
+	}
+	
+	/**
+	 * Returns this struct and its prototypes, with the last prototype on top.
+	 */
+	private Stack<DLStruct> chain()
+	{
+		Stack<DLStruct> out = new Stack<DLStruct>();
+		for (DLStruct s = this; s != null; s = s.prototype)
+			out.push(s);
 		return out;
 	}
 	
@@ -756,9 +1100,26 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, DLValue value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
-			fieldTable.put(fieldName, value);
+			putField(fieldName, value);
+	}
+
+	/**
+	 * Sets the fields of an archetype from the first of its slots.
+	 * A struct with no fields yet takes the archetype's shape and a copy of the slots.
+	 */
+	void putArchetype(DLArchetype archetype, DLValue[] values, int count)
+	{
+		load();
+		if (shape == DLShape.EMPTY && archetype.shapes != null)
+		{
+			shape = archetype.shapes[count];
+			slots = Arrays.copyOf(values, count);
+			return;
+		}
+		for (int i = 0; i < count; i++)
+			putField(archetype.fields[i], values[i]);
 	}
 
 	/**
@@ -770,7 +1131,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, boolean[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 		{
 			double[] d = new double[value.length];
@@ -789,7 +1150,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, char[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 		{
 			double[] val = new double[value.length];
@@ -807,7 +1168,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, short[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 		{
 			double[] val = new double[value.length];
@@ -825,13 +1186,10 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, int[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 		{
-			double[] val = new double[value.length];
-			for (int i = 0; i < value.length; i++)
-				val[i] = value[i];
-			put(fieldName,new DLValue(val));
+			put(fieldName,new DLValue(value.clone()));
 		}
 	}
 
@@ -843,7 +1201,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, float[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 		{
 			double[] val = new double[value.length];
@@ -861,13 +1219,10 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, long[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 		{
-			double[] val = new double[value.length];
-			for (int i = 0; i < value.length; i++)
-				val[i] = value[i];
-			put(fieldName,new DLValue(val));
+			put(fieldName,new DLValue(value.clone()));
 		}
 	}
 
@@ -879,7 +1234,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, double[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 			put(fieldName,new DLValue(value));
 	}
@@ -892,7 +1247,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, String[] value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 			put(fieldName,new DLValue(value));
 	}
@@ -905,7 +1260,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public void put(String fieldName, boolean value)
 	{
-		put(fieldName,new DLValue(value?1:0));
+		put(fieldName,new DLValue(value));
 	}
 
 	/**
@@ -926,7 +1281,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void put(String fieldName, String value)
 	{
 		if (value == null)
-			fieldTable.removeUsingKey(fieldName);
+			removeField(fieldName);
 		else
 			put(fieldName,new DLValue(value));
 	}
@@ -951,7 +1306,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	public void append(String fieldName, double value)
 	{
 		if (containsField(fieldName))
-			fieldTable.get(fieldName).append(value);
+			writableField(fieldName).append(value);
 		else
 			put(fieldName,value);
 	}
@@ -967,7 +1322,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 		if (value == null) return;
 		
 		if (containsField(fieldName))
-			fieldTable.get(fieldName).append(value);
+			writableField(fieldName).append(value);
 		else
 			put(fieldName,value);
 	}
@@ -1063,7 +1418,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 		if (value == null) return;
 		
 		if (containsField(fieldName))
-			fieldTable.get(fieldName).append(value);
+			writableField(fieldName).append(value);
 		else
 			put(fieldName,value);
 	}
@@ -1079,7 +1434,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 		if (value == null) return;
 		
 		if (containsField(fieldName))
-			fieldTable.get(fieldName).append(value);
+			writableField(fieldName).append(value);
 		else
 			put(fieldName,value);
 	}
@@ -1092,7 +1447,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public double getDouble(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return Double.NaN;
 		return value.getDouble();
@@ -1106,7 +1461,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public double[] getDoubleArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getDoubleArray();
@@ -1121,7 +1476,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public double[] getDoubleArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getDoubleArray(length);
@@ -1171,7 +1526,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public String getString(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getString();
@@ -1184,7 +1539,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public String[] getStringArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getStringArray();
@@ -1198,7 +1553,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public String[] getStringArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getStringArray(length);
@@ -1248,7 +1603,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public float getFloat(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return Float.NaN;
 		return value.getFloat();
@@ -1261,7 +1616,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public float[] getFloatArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getFloatArray();
@@ -1276,7 +1631,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public float[] getFloatArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getFloatArray(length);
@@ -1327,7 +1682,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public long getLong(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return 0;
 		return value.getLong();
@@ -1341,7 +1696,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public long[] getLongArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getLongArray();
@@ -1356,7 +1711,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public long[] getLongArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getLongArray(length);
@@ -1407,7 +1762,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public int getInt(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return 0;
 		return value.getInt();
@@ -1421,7 +1776,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public int[] getIntArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getIntArray();
@@ -1436,7 +1791,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public int[] getIntArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getIntArray(length);
@@ -1490,7 +1845,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public short getShort(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return 0;
 		return value.getShort();
@@ -1504,7 +1859,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public short[] getShortArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getShortArray();
@@ -1519,7 +1874,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public short[] getShortArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getShortArray(length);
@@ -1570,7 +1925,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public char getChar(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return '\0';
 		return value.getChar();
@@ -1584,7 +1939,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public char[] getCharArray(String fieldName)
 	{
-		DLValue v = getValue(fieldName);
+		DLValue v = value(fieldName);
 		if (v == null)
 			return null;
 		return v.getCharArray();
@@ -1599,7 +1954,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public char[] getCharArray(int length, String fieldName)
 	{
-		DLValue v = getValue(fieldName);
+		DLValue v = value(fieldName);
 		if (v == null)
 			return null;
 		return v.getCharArray(length);
@@ -1652,7 +2007,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public byte getByte(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return 0;
 		return value.getByte();
@@ -1666,7 +2021,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public byte[] getByteArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getByteArray();
@@ -1681,7 +2036,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public byte[] getByteArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getByteArray(length);
@@ -1732,7 +2087,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public boolean getBoolean(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return false;
 		return value.getBoolean();
@@ -1746,7 +2101,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public boolean[] getBooleanArray(String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getBooleanArray();
@@ -1761,7 +2116,7 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public boolean[] getBooleanArray(int length, String fieldName)
 	{
-		DLValue value = getValue(fieldName);
+		DLValue value = value(fieldName);
 		if (value == null)
 			return null;
 		return value.getBooleanArray(length);
@@ -1808,22 +2163,56 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 
 	/**
 	 * Gets the value of a field.
+	 * A value that this struct inherits from a prototype is returned as a copy,
+	 * so changing it does not change the prototype's.
+	 * @see #getPrototype()
 	 * @since 2.0.1, made public.
 	 */
 	public DLValue getValue(String fieldName)
 	{
-		DLValue value = fieldTable.get(fieldName);
+		DLValue value = value(fieldName);
+		if (value != null && prototype != null && !ownsValue(value))
+			return value.copy();
+		return value;		
+	}
+	
+	/**
+	 * Gets the value of a field to read, which is the prototype's own value if it is inherited.
+	 */
+	DLValue value(String fieldName)
+	{
+		DLValue value = field(fieldName);
 		if (value == null) return null;
-		while (value != null && value.type == DLValue.TYPE_ID)
-			value = fieldTable.get(((String[])value.val)[0]);
+		while (value != null && value.kind == DLValue.KIND_ID)
+			value = field((String)value.val);
 		return value;		
 	}
 	
+	/**
+	 * Returns true if a value is one of this struct's own field values.
+	 */
+	private boolean ownsValue(DLValue value)
+	{
+		load();
+		if (shape != null)
+		{
+			for (int i = 0; i < shape.size(); i++)
+				if (slots[i] == value)
+					return true;
+			return false;
+		}
+		for (ObjectPair<String,DLValue> hp : fieldTable)
+			if (hp.getValue() == value)
+				return true;
+		return false;
+	}
+	
 	/**
 	 * Returns the number of distinct fields in this struct. 
 	 */
 	public int getNumberOfFields()
 	{
+		load();
 		return numFields;
 	}
 	
@@ -1843,16 +2232,60 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public void copyInto(DLStruct dls)
 	{
+		load();
 		if (getValue() != null)
 			dls.set(getValue().copy());
-		for (ObjectPair<String,DLValue> hp : fieldTable)
-			dls.put(new String(hp.getKey()),hp.getValue().copy());
+		
+		if (prototype != null)
+		{
+			for (String name : getAllFields())
+				dls.put(name, field(name).copy());
+			for (String type : getAllTypes())
+				for (DLStruct str : get(type))
+					dls.putStruct(type, str.copy());
+			return;
+		}
+		
+		putFieldsInto(dls, true);
 		
 		for (ObjectPair<String, Queue<DLStruct>> hp : this)
 			for (DLStruct str : hp.getValue())
 				dls.putStruct(hp.getKey(),str.copy());
 	}
 
+	/**
+	 * Moves the fields and structs of another struct into this one, in order, without copying them.
+	 * Lists of structs of types that this does not have yet are moved over whole.
+	 * The other struct shares its lists with this afterward, and must be discarded.
+	 */
+	void splice(DLStruct from)
+	{
+		from.putFieldsInto(this, false);
+		
+		for (ObjectPair<String, Queue<DLStruct>> hp : from)
+		{
+			Queue<DLStruct> list = super.get(hp.getKey());
+			if (list == null)
+				super.put(hp.getKey(), hp.getValue());
+			else for (DLStruct str : hp.getValue())
+				list.enqueue(str);
+			numStructs += hp.getValue().size();
+		}
+	}
+
+	/**
+	 * Adds the fields and structs of another struct to this one, in order, without copying them.
+	 * Unlike {@link #splice(DLStruct)}, the other struct keeps its own lists, and is not changed.
+	 */
+	void share(DLStruct from)
+	{
+		from.putFieldsInto(this, false);
+		
+		for (ObjectPair<String, Queue<DLStruct>> hp : from)
+			for (DLStruct str : hp.getValue())
+				putStruct(hp.getKey(), str);
+	}
+
 	/**
 	 * Returns a Queue of all of the structs of a particular name
 	 * in the order in which they were added to the struct.
@@ -1883,11 +2316,66 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 	 */
 	public DLStruct putStruct(String typename, DLStruct dls)
 	{
-		enqueue(typename, dls);
+		Queue<DLStruct> own;
+		if (prototype != null && ownStructs(typename) == null && (own = inheritStructs(typename)) != null)
+		{
+			super.put(typename, own);
+			inheritedLists.remove(typename);
+			own.enqueue(dls);
+		}
+		else
+			enqueue(typename, dls);
 		numStructs++;
 		return dls;
 	}
 
+	/**
+	 * Returns the list of structs of a type that this struct inherits from its prototypes, 
+	 * or null if it inherits none.
+	 */
+	private Queue<DLStruct> inheritedStructs(String typename)
+	{
+		for (DLStruct s = prototype; s != null; s = s.prototype)
+		{
+			Queue<DLStruct> out = s.ownStructs(typename);
+			if (out != null)
+				return out;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns this struct's own list of the structs of a type that it inherits, 
+	 * with each inherited struct replaced by a new, empty one that has it as its prototype, 
+	 * so that changing the structs in the list does not change the prototype's.
+	 * The list is made the first time, and kept apart from this struct's table of structs 
+	 * until something is added to it, so that reading does not change the table.
+	 * @return the list, or null if this inherits no structs of the type.
+	 */
+	private Queue<DLStruct> inheritStructs(String typename)
+	{
+		Queue<DLStruct> out = inheritedLists.get(typename);
+		if (out != null)
+			return out;
+		
+		Queue<DLStruct> inherited = inheritedStructs(typename);
+		if (inherited == null)
+			return null;
+		
+		out = new Queue<DLStruct>();
+		for (DLStruct dls : inherited)
+		{
+			DLStruct child = new DLStruct();
+			if (dls.getValue() != null)
+				child.set(dls.getValue().copy());
+			child.setPrototype(dls);
+			out.enqueue(child);
+		}
+		// another thread may have made it first - every reader gets the same list.
+		Queue<DLStruct> made = inheritedLists.putIfAbsent(typename, out);
+		return made != null ? made : out;
+	}
+
 	/**
 	 * Returns true if this table contains at least one DLStruct of type <i>typename</i>.
 	 */
@@ -1896,6 +2384,86 @@ public class DLStruct extends HashedQueueMap<String,DLStruct>
 		return containsKey(typename);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * If this struct has a prototype and none of its own structs of the type, 
+	 * this returns its own list of the ones that it inherits, made the first time. 
+	 * </p>
+	 * @see #getPrototype()
+	 */
+	@Override
+	public Queue<DLStruct> get(String typename)
+	{
+		Queue<DLStruct> out = ownStructs(typename);
+		if (out == null && prototype != null)
+			out = inheritStructs(typename);
+		return out;
+	}
+
+	@Override
+	public boolean containsKey(String typename)
+	{
+		if (prototype != null)
+			return ownStructs(typename) != null || inheritedStructs(typename) != null;
+		load();
+		return super.containsKey(typename);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This reads this struct's body first if its reading was deferred, and includes the structs
+	 * that it inherits from its prototypes, in the order of {@link #getAllTypes()}.
+	 * </p>
+	 */
+	@Override
+	public Iterator<ObjectPair<String, Queue<DLStruct>>> iterator()
+	{
+		load();
+		if (prototype == null)
+			return super.iterator();
+		
+		Queue<ObjectPair<String, Queue<DLStruct>>> out = new Queue<ObjectPair<String, Queue<DLStruct>>>();
+		for (String type : getAllTypes())
+			out.enqueue(new ObjectPair<String, Queue<DLStruct>>(type, get(type)));
+		return out.iterator();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * This reads this struct's body first if its reading was deferred, and includes the types
+	 * of the structs that it inherits from its prototypes, in the order of {@link #getAllTypes()}.
+	 * </p>
+	 */
+	@Override
+	public Iterator<String> keyIterator()
+	{
+		load();
+		if (prototype == null)
+			return super.keyIterator();
+		return Arrays.asList(getAllTypes()).iterator();
+	}
+
+	@Override
+	public int size()
+	{
+		if (prototype != null)
+			return getAllTypes().length;
+		load();
+		return super.size();
+	}
+
+	@Override
+	public boolean isEmpty()
+	{
+		if (prototype != null)
+			return size() == 0;
+		load();
+		return super.isEmpty();
+	}
+
 	/**
 	 * Returns the string representation of this struct.
 	 * @since 2.3.0, this has a proper {@link #toString()} method.
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import com.blackrook.commons.ObjectPair;
+import com.blackrook.commons.hash.HashMap;
+import com.blackrook.commons.linkedlist.Queue;
+import com.blackrook.commons.linkedlist.Stack;
+
+/**
+ * The event handler that builds read data into a {@link DLStruct}.
+ * @author Matthew Tropiano
+ */
+class DLStructBuilder implements DLEventHandler
+{
+	private Stack<DLStruct> structStack;
+	private DLStruct stackTop;
+	
+	/** 
+	 * Inherit lookup indexes of the structs under the top of the stack. 
+	 * Each maps types to struct values (by {@link DLValue#key()}) to the last struct with them. 
+	 */
+	private Stack<HashMap<String, HashMap<String, DLStruct>>> indexStack;
+	/** Inherit lookup index of the top of the stack, or null if nothing has inherited from its children. */
+	private HashMap<String, HashMap<String, DLStruct>> topIndex;
+	/** If true, inheriting structs refer to what they inherit instead of copying it, where they can. */
+	private boolean prototypes;
+
+	/**
+	 * Creates a new builder that inherits by copy.
+	 * @param root the struct to add the read data to.
+	 */
+	DLStructBuilder(DLStruct root)
+	{
+		this(root, false);
+	}
+
+	/**
+	 * Creates a new builder.
+	 * @param root the struct to add the read data to.
+	 * @param prototypes if true, inheriting structs refer to what they inherit instead of copying it, where they can.
+	 */
+	DLStructBuilder(DLStruct root, boolean prototypes)
+	{
+		this.prototypes = prototypes;
+		structStack = new Stack<DLStruct>();
+		indexStack = new Stack<HashMap<String, HashMap<String, DLStruct>>>();
+		topIndex = null;
+		pushStruct(root);
+	}
+
+	/**
+	 * Starts this builder over on a new root struct.
+	 * @param root the struct to add the read data to.
+	 */
+	void reset(DLStruct root)
+	{
+		structStack.clear();
+		indexStack.clear();
+		topIndex = null;
+		pushStruct(root);
+	}
+
+	@Override
+	public void archetypeDecl(String name, String[] fields)
+	{
+		// Do nothing - the parser expands archetypes.
+	}
+
+	@Override
+	public void startStruct(String type, DLValue value)
+	{
+		DLStruct struct = stackTop.putStruct(type);
+		if (value != null)
+		{
+			struct.set(value);
+			index(type, struct);
+		}
+		pushStruct(struct);
+	}
+
+	@Override
+	public void inherit(String type, DLValue value)
+	{
+		DLStruct last = popStruct();
+		DLStruct found = lookup(type).get(value.key());
+		pushStruct(last);
+		
+		if (found == null)
+			throw new DLParseException("The struct that this struct is supposed to inherit data from, "+type+" "+value.toString()+", can't be found.");
+
+		DLValue v = stackTop.getValue();
+		// only the first inherit of an empty struct can be a prototype - everything else is layered over it.
+		if (prototypes && found != stackTop && stackTop.getPrototype() == null && stackTop.isBlank())
+			stackTop.setPrototype(found);
+		else
+			found.copyInto(stackTop);
+		stackTop.set(v);
+	}
+
+	@Override
+	public void field(String name, DLValue value)
+	{
+		stackTop.put(name, value);
+	}
+
+	/**
+	 * Sets the fields of an archetype clause on the current struct.
+	 * @param archetype the archetype.
+	 * @param slots the values, in slot order.
+	 * @param count the number of values.
+	 */
+	void archetype(DLArchetype archetype, DLValue[] slots, int count)
+	{
+		stackTop.putArchetype(archetype, slots, count);
+	}
+
+	@Override
+	public void endStruct()
+	{
+		popStruct();
+	}
+
+	/**
+	 * Returns the struct currently being built.
+	 */
+	DLStruct current()
+	{
+		return stackTop;
+	}
+
+	/**
+	 * Notes the structs of a struct that is about to be added to the root struct from elsewhere,
+	 * so that inherit clauses can find them. The root struct must be the one being built.
+	 */
+	void added(DLStruct from)
+	{
+		if (topIndex == null)
+			return;
+		for (ObjectPair<String, Queue<DLStruct>> hp : from)
+			for (DLStruct dls : hp.getValue())
+				index(hp.getKey(), dls);
+	}
+
+	/**
+	 * Adds a child of the struct being built to its inherit lookup index, if it has one for its type.
+	 * Later structs replace earlier ones with the same value, since inheriting finds the last one.
+	 */
+	private void index(String type, DLStruct dls)
+	{
+		HashMap<String, DLStruct> byValue;
+		if (topIndex != null && dls.getValue() != null && (byValue = topIndex.get(type)) != null)
+			byValue.put(dls.getValue().key(), dls);
+	}
+
+	/**
+	 * Returns the inherit lookup index of a type of child of the struct being built,
+	 * building it on first use.
+	 */
+	private HashMap<String, DLStruct> lookup(String type)
+	{
+		if (topIndex == null)
+			topIndex = new HashMap<String, HashMap<String, DLStruct>>();
+		
+		HashMap<String, DLStruct> out = topIndex.get(type);
+		if (out == null)
+		{
+			out = new HashMap<String, DLStruct>();
+			topIndex.put(type, out);
+			Queue<DLStruct> structList = stackTop.get(type);
+			if (structList != null) for (DLStruct dls : structList)
+				index(type, dls);
+		}
+		return out;
+	}
+
+	private void pushStruct(DLStruct dls)
+	{
+		structStack.push(dls);
+		indexStack.push(topIndex);
+		stackTop = dls;
+		topIndex = null;
+	}
+	
+	private DLStruct popStruct()
+	{
+		DLStruct returned = structStack.pop();
+		stackTop = structStack.peek();
+		topIndex = indexStack.pop();
+		return returned;
+	}
+
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+/**
+ * A table of interned names, used by {@link DLReader} so that every struct type, 
+ * field name, and archetype field with the same name shares one String.
+ * <p>
+ * Names are looked up straight from the reader's input, so a name that is already in the
+ * table does not create a new String. Each String added has its hash code computed up front.
+ * A reader uses a new table for each read unless it is given one to share with 
+ * {@link DLReader#setSymbolTable(DLSymbolTable)}, in which case names are shared across reads,
+ * and the table keeps every name that it has seen until it is cleared.
+ * </p>
+ * <p>
+ * This is safe to share between threads. The table is split into segments that are locked separately.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ */
+public class DLSymbolTable
+{
+	/** Number of segments (power of two). */
+	private static final int SEGMENT_COUNT = 16;
+	/** Starting capacity of each segment (power of two). */
+	private static final int SEGMENT_CAPACITY = 64;
+	
+	/** The segments. */
+	private final Segment[] segments;
+	
+	/**
+	 * Creates a new, empty symbol table.
+	 */
+	public DLSymbolTable()
+	{
+		segments = new Segment[SEGMENT_COUNT];
+		for (int i = 0; i < SEGMENT_COUNT; i++)
+			segments[i] = new Segment();
+	}
+	
+	/**
+	 * Returns the interned copy of a name, adding it if it isn't in this table.
+	 * @param name the name.
+	 * @return the String in this table equal to the name.
+	 * @throws NullPointerException if name is null.
+	 */
+	public String intern(String name)
+	{
+		int hash = name.hashCode();
+		return segmentFor(hash).intern(name, hash);
+	}
+	
+	/**
+	 * Returns the interned copy of a region of lexer input, adding it if it isn't in this table.
+	 * Regions of byte inputs that aren't ASCII are decoded first.
+	 */
+	String intern(DLLexer.Input input, int start, int end)
+	{
+		int hash = 0;
+		for (int i = start; i < end; i++)
+		{
+			int c = input.at(i);
+			if (c >= 128 && input.bytes != null)
+				return intern(input.substring(start, end));
+			hash = 31 * hash + c;
+		}
+		return segmentFor(hash).intern(input, start, end, hash);
+	}
+	
+	/**
+	 * Returns the number of names in this table.
+	 */
+	public int size()
+	{
+		int out = 0;
+		for (Segment s : segments)
+			out += s.size();
+		return out;
+	}
+	
+	/**
+	 * Removes all names from this table.
+	 */
+	public void clear()
+	{
+		for (Segment s : segments)
+			s.clear();
+	}
+	
+	private Segment segmentFor(int hash)
+	{
+		// mix, so that the segment isn't picked by the same bits as the slot.
+		int h = hash ^ (hash >>> 16);
+		return segments[(h >>> 8) & (SEGMENT_COUNT - 1)];
+	}
+	
+	/**
+	 * An open-addressed set of Strings with its own lock.
+	 */
+	private static final class Segment
+	{
+		private String[] names;
+		private int[] hashes;
+		private int size;
+		
+		Segment()
+		{
+			clear();
+		}
+		
+		synchronized String intern(String name, int hash)
+		{
+			int mask = names.length - 1;
+			int i = hash & mask;
+			String s;
+			while ((s = names[i]) != null)
+			{
+				if (hashes[i] == hash && s.equals(name))
+					return s;
+				i = (i + 1) & mask;
+			}
+			return add(i, name, hash);
+		}
+		
+		synchronized String intern(DLLexer.Input input, int start, int end, int hash)
+		{
+			int mask = names.length - 1;
+			int i = hash & mask;
+			String s;
+			while ((s = names[i]) != null)
+			{
+				if (hashes[i] == hash && s.length() == end - start && input.regionMatches(start, s))
+					return s;
+				i = (i + 1) & mask;
+			}
+			return add(i, input.substring(start, end), hash);
+		}
+		
+		synchronized int size()
+		{
+			return size;
+		}
+		
+		synchronized void clear()
+		{
+			names = new String[SEGMENT_CAPACITY];
+			hashes = new int[SEGMENT_CAPACITY];
+			size = 0;
+		}
+		
+		// Adds a name at a free slot, growing at half full.
+		private String add(int slot, String name, int hash)
+		{
+			name.hashCode(); // caches it in the String.
+			names[slot] = name;
+			hashes[slot] = hash;
+			if (++size * 2 > names.length)
+			{
+				String[] oldNames = names;
+				int[] oldHashes = hashes;
+				names = new String[oldNames.length * 2];
+				hashes = new int[oldNames.length * 2];
+				int mask = names.length - 1;
+				for (int j = 0; j < oldNames.length; j++)
+				{
+					if (oldNames[j] == null)
+						continue;
+					int i = oldHashes[j] & mask;
+					while (names[i] != null)
+						i = (i + 1) & mask;
+					names[i] = oldNames[j];
+					hashes[i] = oldHashes[j];
+				}
+			}
+			return name;
+		}
+	}
+	
+}
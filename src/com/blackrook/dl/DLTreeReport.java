@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2009-2014 Black Rook Software
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Lesser Public License v2.1
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ ******************************************************************************/
+package com.blackrook.dl;
+
+import java.nio.file.Path;
+
+/**
+ * The files read by {@link DLReader#applyTree(Path, String, DLStruct)}, in the order 
+ * that they were added, with how long each took to read and to add.
+ * @author Matthew Tropiano
+ * @since 2.6.0
+ */
+public final class DLTreeReport
+{
+	/** The root directory. */
+	private Path root;
+	/** The files read. */
+	private Path[] paths;
+	/** Read time of each file, in nanoseconds. */
+	private long[] readNanos;
+	/** Time taken adding each file, in nanoseconds. */
+	private long[] mergeNanos;
+	/** Wall time of the whole load, in nanoseconds. */
+	private long totalNanos;
+	
+	/**
+	 * Creates a new report.
+	 * @param root the root directory.
+	 * @param paths the files read, in order.
+	 */
+	DLTreeReport(Path root, Path[] paths)
+	{
+		this.root = root;
+		this.paths = paths;
+		this.readNanos = new long[paths.length];
+		this.mergeNanos = new long[paths.length];
+		this.totalNanos = 0L;
+	}
+	
+	/**
+	 * Sets the timings of a file.
+	 */
+	void set(int index, long readNanos, long mergeNanos)
+	{
+		this.readNanos[index] = readNanos;
+		this.mergeNanos[index] = mergeNanos;
+	}
+	
+	/**
+	 * Sets the wall time of the whole load.
+	 */
+	void setTotalNanos(long totalNanos)
+	{
+		this.totalNanos = totalNanos;
+	}
+	
+	/**
+	 * Returns the root directory that was searched.
+	 */
+	public Path getRoot()
+	{
+		return root;
+	}
+	
+	/**
+	 * Returns the number of files read.
+	 */
+	public int size()
+	{
+		return paths.length;
+	}
+	
+	/**
+	 * Returns the path of a file read.
+	 * @param index the index of the file, in the order that it was added.
+	 * @throws ArrayIndexOutOfBoundsException if index is out of range.
+	 */
+	public Path getPath(int index)
+	{
+		return paths[index];
+	}
+	
+	/**
+	 * Returns how long a file took to read, in nanoseconds. 
+	 * Files are read at the same time, so these can add up to more than the total time.
+	 * @param index the index of the file, in the order that it was added.
+	 * @throws ArrayIndexOutOfBoundsException if index is out of range.
+	 */
+	public long getReadNanos(int index)
+	{
+		return readNanos[index];
+	}
+	
+	/**
+	 * Returns how long a file took to add to the target struct after it was read, in nanoseconds.
+	 * @param index the index of the file, in the order that it was added.
+	 * @throws ArrayIndexOutOfBoundsException if index is out of range.
+	 */
+	public long getMergeNanos(int index)
+	{
+		return mergeNanos[index];
+	}
+	
+	/**
+	 * Returns how long the whole load took, in nanoseconds, including finding the files.
+	 */
+	public long getTotalNanos()
+	{
+		return totalNanos;
+	}
+	
+	/**
+	 * Returns the report as a table, with one line per file, in milliseconds.
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(root).append(": ").append(paths.length).append(" files, ");
+		appendMillis(sb, totalNanos).append(" ms");
+		for (int i = 0; i < paths.length; i++)
+		{
+			sb.append('\n').append(root.relativize(paths[i])).append(": read ");
+			appendMillis(sb, readNanos[i]).append(" ms, add ");
+			appendMillis(sb, mergeNanos[i]).append(" ms");
+		}
+		return sb.toString();
+	}
+	
+	// Appends nanoseconds as milliseconds, to three places.
+	private static StringBuilder appendMillis(StringBuilder sb, long nanos)
+	{
+		long micros = nanos / 1000L;
+		sb.append(micros / 1000L).append('.');
+		long frac = micros % 1000L;
+		if (frac < 100L)
+			sb.append('0');
+		if (frac < 10L)
+			sb.append('0');
+		return sb.append(frac);
+	}
+}
@@ -9,47 +9,204 @@ package com.blackrook.dl;
 
 import java.util.Arrays;
 
-class DLValue 
+/**
+ * A single value in a DL structure: a field's value or a structure's value.
+ * <p>
+ * Single numbers and strings are kept as they are, instead of in one-element arrays,
+ * but still act like one-element arrays: their type is {@link #TYPE_NUMBER_ARRAY} or
+ * {@link #TYPE_STRING_ARRAY}, and {@link #getVal()} returns them in a new one-element array,
+ * so changes made through it are not kept. Reading a value never changes how it is kept,
+ * so values can be read from many threads at once.
+ * Booleans are kept as the numbers 1 and 0.
+ * </p>
+ * <p>
+ * Integers read without a fraction or exponent are kept as longs, and arrays of them as 
+ * <code>int[]</code> or <code>long[]</code>, whichever holds them all, so {@link #getLong()} 
+ * returns them exactly. Their type is still {@link #TYPE_NUMBER_ARRAY}, and {@link #getVal()} 
+ * returns them in a new <code>double[]</code>. They are only moved into a <code>double[]</code>
+ * when something is appended to them.
+ * </p>
+ * <p>
+ * Single strings read as numbers are parsed once and their number is kept,
+ * so reading it again with {@link #getDouble()}, {@link #getInt()} or {@link #getLong()} 
+ * does not parse it again.
+ * </p>
+ * @author Matthew Tropiano
+ * @since 2.6.0, made public.
+ */
+public class DLValue 
 {
 	public static final int
 	TYPE_NUMBER_ARRAY = 0,
 	TYPE_STRING_ARRAY = 1,
 	TYPE_ID = 2;
 	
-	int type;
+	/** Kinds of storage: the types, plus single numbers and strings. */
+	static final int
+	KIND_NUMBER_ARRAY = TYPE_NUMBER_ARRAY,
+	KIND_STRING_ARRAY = TYPE_STRING_ARRAY,
+	KIND_ID = TYPE_ID,
+	KIND_NUMBER = 3,
+	KIND_STRING = 4,
+	KIND_LONG = 5,
+	KIND_INT_ARRAY = 6,
+	KIND_LONG_ARRAY = 7;
+	
+	/** The kind of storage. */
+	int kind;
+	/** The array, or the single string or identifier, or null for a single number. */
 	Object val;
+	/** The single number: the value of a long, or the bits of a double. For single strings, the bits of the parsed string. */
+	long scalar;
+	/** True if this is a single string or identifier that was parsed into scalar. */
+	private volatile boolean parsed;
 	
 	DLValue(double d)
 	{
-		this(new double[]{d});
+		kind = KIND_NUMBER;
+		scalar = Double.doubleToRawLongBits(d);
+	}
+	
+	DLValue(long l)
+	{
+		kind = KIND_LONG;
+		scalar = l;
+	}
+	
+	DLValue(boolean b)
+	{
+		this(b ? 1L : 0L);
 	}
 	
 	DLValue(double[] d)
 	{
-		type = TYPE_NUMBER_ARRAY;
+		kind = KIND_NUMBER_ARRAY;
+		val = d;
+	}
+	
+	DLValue(int[] d)
+	{
+		kind = KIND_INT_ARRAY;
+		val = d;
+	}
+	
+	DLValue(long[] d)
+	{
+		kind = KIND_LONG_ARRAY;
 		val = d;
 	}
 
 	DLValue(String s)
 	{
-		this(new String[]{s});
+		this(s, false);
 	}
 
 	DLValue(String s, boolean id)
 	{
 		if (id)
-			type = TYPE_ID;
+			kind = KIND_ID;
 		else
-			type = TYPE_STRING_ARRAY;
-		val = new String[]{s};
+			kind = KIND_STRING;
+		val = s;
 	}
 
 	DLValue(String[] s)
 	{
-		type = TYPE_STRING_ARRAY;
+		kind = KIND_STRING_ARRAY;
 		val = s;
 	}
 	
+	/**
+	 * Returns the single number of a {@link #KIND_NUMBER} value.
+	 */
+	double number()
+	{
+		return Double.longBitsToDouble(scalar);
+	}
+	
+	/**
+	 * Returns a single string or identifier value as a number, parsing it only the first time.
+	 * String arrays are not cached, since {@link #getVal()} returns them for changing.
+	 */
+	private double parsedNumber(String s)
+	{
+		if (parsed)
+			return Double.longBitsToDouble(scalar);
+		double out = parse(s);
+		// scalar is written before the volatile flag, so threads that see the flag see it too.
+		scalar = Double.doubleToRawLongBits(out);
+		parsed = true;
+		return out;
+	}
+	
+	/**
+	 * Returns true if this holds numbers.
+	 */
+	private boolean isNumeric()
+	{
+		switch (kind)
+		{
+			case KIND_NUMBER:
+			case KIND_NUMBER_ARRAY:
+			case KIND_LONG:
+			case KIND_INT_ARRAY:
+			case KIND_LONG_ARRAY:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Moves numbers into a double array, and a single string into a one-element array.
+	 */
+	private void toArray()
+	{
+		if (kind == KIND_STRING)
+		{
+			val = new String[]{(String)val};
+			kind = KIND_STRING_ARRAY;
+			parsed = false;
+		}
+		else if (kind != KIND_NUMBER_ARRAY && isNumeric())
+		{
+			val = getDoubleArray();
+			kind = KIND_NUMBER_ARRAY;
+		}
+	}
+	
+	/**
+	 * Returns a number as a String, without a fraction if it is whole.
+	 */
+	private static String toString(double temp)
+	{
+		double d = temp-(int)temp;
+		return (d != 0.0) ? temp+"" : (int)temp+""; 
+	}
+	
+	/**
+	 * Returns a long as a String in the form that an equal double has: 
+	 * the double's form if a double holds it exactly, or its own digits if not.
+	 */
+	private static String toKey(long l)
+	{
+		// Long.MAX_VALUE rounds up to 2^63, which casts back to it.
+		if ((long)(double)l == l && l != Long.MAX_VALUE)
+			return toString((double)l);
+		return Long.toString(l);
+	}
+	
+	/**
+	 * Parses a String as a number, with the empty String as 0.
+	 */
+	private static double parse(String s)
+	{
+		if (s.equals(""))
+			return 0;
+		else
+			return Double.parseDouble(s);
+	}
+	
 	public void append(double d)
 	{
 		append(new double[]{d});
@@ -57,7 +214,8 @@ class DLValue
 	
 	public void append(double[] d)
 	{
-		switch (type)
+		toArray();
+		switch (kind)
 		{
 			case TYPE_NUMBER_ARRAY:
 			{
@@ -92,7 +250,8 @@ class DLValue
 	
 	public void append(String[] s)
 	{
-		switch (type)
+		toArray();
+		switch (kind)
 		{
 			case TYPE_NUMBER_ARRAY:
 			{
@@ -103,7 +262,7 @@ class DLValue
 				for (int i = 0; i < s.length; i++)
 					db[da.length+i] = s[i];
 				val = db;
-				type = TYPE_STRING_ARRAY;
+				kind = KIND_STRING_ARRAY;
 			}	
 				break;
 			case TYPE_STRING_ARRAY:
@@ -131,17 +290,24 @@ class DLValue
 	 */
 	public double getDouble()
 	{
-		switch (type)
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
+			case KIND_NUMBER:
+				return number();
+			case KIND_LONG:
+				return scalar;
+			case KIND_NUMBER_ARRAY:
 				return ((double[])val)[0];
-			case TYPE_STRING_ARRAY:
+			case KIND_INT_ARRAY:
+				return ((int[])val)[0];
+			case KIND_LONG_ARRAY:
+				return ((long[])val)[0];
+			case KIND_STRING_ARRAY:
+				return parse(((String[])val)[0]);
+			case KIND_STRING:
+			case KIND_ID:
 			default:
-				String s = ((String[])val)[0];
-				if (s.equals(""))
-					return 0;
-				else
-					return Double.parseDouble(((String[])val)[0]);
+				return parsedNumber((String)val);
 		}
 	}
 
@@ -152,29 +318,34 @@ class DLValue
 	 */
 	public double[] getDoubleArray()
 	{
-		switch (type)
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
+			case KIND_NUMBER:
+				return new double[]{number()};
+			case KIND_LONG:
+				return new double[]{scalar};
+			case KIND_NUMBER_ARRAY:
 			{
 				double[] v = (double[])val;
 				double[] o = new double[v.length];
 				System.arraycopy(v, 0, o, 0, v.length);
 				return o;
 			}
-			case TYPE_STRING_ARRAY:
-			default:
+			case KIND_INT_ARRAY:
+			case KIND_LONG_ARRAY:
+				return getDoubleArray(length());
+			case KIND_STRING_ARRAY:
 			{
 				String[] st = (String[])val;
 				double[] out = new double[st.length];
 				for (int i = 0; i < st.length; i++)
-				{
-					if (st[i].equals(""))
-						out[i] = 0;
-					else
-						out[i] = Double.parseDouble(st[i]);
-				}
+					out[i] = parse(st[i]);
 				return out;
 			}
+			case KIND_STRING:
+			case KIND_ID:
+			default:
+				return new double[]{parsedNumber((String)val)};
 		}
 	}
 
@@ -186,24 +357,50 @@ class DLValue
 	 */
 	public double[] getDoubleArray(int length)
 	{
-		switch (type)
+		double[] out = new double[length];
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
+			case KIND_NUMBER:
+				if (length > 0)
+					out[0] = number();
+				return out;
+			case KIND_LONG:
+				if (length > 0)
+					out[0] = scalar;
+				return out;
+			case KIND_NUMBER_ARRAY:
 			{
 				double[] v = (double[])val;
-				double[] o = new double[length];
-				System.arraycopy(v, 0, o, 0, Math.min(v.length,length));
-				return o;
+				System.arraycopy(v, 0, out, 0, Math.min(v.length,length));
+				return out;
 			}
-			case TYPE_STRING_ARRAY:
-			default:
+			case KIND_INT_ARRAY:
+			{
+				int[] v = (int[])val;
+				for (int i = 0; i < Math.min(v.length,length); i++)
+					out[i] = v[i];
+				return out;
+			}
+			case KIND_LONG_ARRAY:
+			{
+				long[] v = (long[])val;
+				for (int i = 0; i < Math.min(v.length,length); i++)
+					out[i] = v[i];
+				return out;
+			}
+			case KIND_STRING_ARRAY:
 			{
 				String[] st = (String[])val;
-				double[] out = new double[length];
 				for (int i = 0; i < Math.min(st.length,length); i++)
 					out[i] = Double.parseDouble(st[i]);
 				return out;
 			}
+			case KIND_STRING:
+			case KIND_ID:
+			default:
+				if (length > 0)
+					out[0] = Double.parseDouble((String)val);
+				return out;
 		}
 	}
 
@@ -213,18 +410,24 @@ class DLValue
 	 */
 	public String getString()
 	{
-		switch (type)
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
-			{
-				double temp = ((double[])val)[0];
-				double d = temp-(int)temp;
-				return (d != 0.0) ? temp+"" : (int)temp+""; 
-			}
-			case TYPE_STRING_ARRAY:
+			case KIND_NUMBER:
+				return toString(number());
+			case KIND_LONG:
+				return Long.toString(scalar);
+			case KIND_NUMBER_ARRAY:
+				return toString(((double[])val)[0]);
+			case KIND_INT_ARRAY:
+				return Integer.toString(((int[])val)[0]);
+			case KIND_LONG_ARRAY:
+				return Long.toString(((long[])val)[0]);
+			case KIND_STRING_ARRAY:
 				return ((String[])val)[0];
+			case KIND_STRING:
+			case KIND_ID:
 			default:
-				return val.toString();
+				return (String)val;
 		}
 	}
 
@@ -234,30 +437,20 @@ class DLValue
 	 */
 	public String[] getStringArray()
 	{
-		switch (type)
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
-			{
-				double[] da = (double[])val;
-				String[] out = new String[da.length];
-				for (int i = 0; i < da.length; i++)
-				{
-					double temp = da[i];
-					double d = temp-(int)temp;
-					out[i] = (d != 0.0) ? temp+"" : (int)temp+""; 
-				}
-				return out;
-			}
-			case TYPE_STRING_ARRAY:
-			{
-				String[] s = (String[])val;
-				String[] o = new String[s.length]; 
-				for (int i = 0; i < s.length; i++)
-					o[i] = new String(s[i]); 
-				return o;
-			}
+			case KIND_NUMBER:
+			case KIND_LONG:
+			case KIND_STRING:
+			case KIND_ID:
+				return new String[]{getString()};
+			case KIND_NUMBER_ARRAY:
+			case KIND_INT_ARRAY:
+			case KIND_LONG_ARRAY:
+				return getStringArray(length());
+			case KIND_STRING_ARRAY:
 			default:
-				return new String[]{val.toString()};
+				return ((String[])val).clone();
 		}
 	}
 
@@ -268,30 +461,71 @@ class DLValue
 	 */
 	public String[] getStringArray(int length)
 	{
-		switch (type)
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
+			case KIND_NUMBER:
+			case KIND_LONG:
+			case KIND_STRING:
+			{
+				String[] out = new String[length];
+				if (length > 0)
+					out[0] = getString();
+				return out;
+			}
+			case KIND_NUMBER_ARRAY:
 			{
 				double[] da = (double[])val;
 				String[] out = new String[length];
 				for (int i = 0; i < Math.min(length, da.length); i++)
-				{
-					double temp = da[i];
-					double d = temp-(int)temp;
-					out[i] = (d != 0.0) ? temp+"" : (int)temp+""; 
-				}
+					out[i] = toString(da[i]);
 				return out;
 			}
-			case TYPE_STRING_ARRAY:
+			case KIND_INT_ARRAY:
+			{
+				int[] ia = (int[])val;
+				String[] out = new String[length];
+				for (int i = 0; i < Math.min(length, ia.length); i++)
+					out[i] = Integer.toString(ia[i]);
+				return out;
+			}
+			case KIND_LONG_ARRAY:
+			{
+				long[] la = (long[])val;
+				String[] out = new String[length];
+				for (int i = 0; i < Math.min(length, la.length); i++)
+					out[i] = Long.toString(la[i]);
+				return out;
+			}
+			case KIND_STRING_ARRAY:
 			{
 				String[] s = (String[])val;
 				String[] o = new String[length]; 
-				for (int i = 0; i < Math.min(length, s.length); i++)
-					o[i] = new String(s[i]); 
+				System.arraycopy(s, 0, o, 0, Math.min(length, s.length));
 				return o;
 			}
+			case KIND_ID:
+			default:
+				return new String[]{(String)val};
+		}
+	}
+
+	/**
+	 * Returns the number of elements in this value's array, or 1 if it is a single value.
+	 */
+	private int length()
+	{
+		switch (kind)
+		{
+			case KIND_NUMBER_ARRAY:
+				return ((double[])val).length;
+			case KIND_INT_ARRAY:
+				return ((int[])val).length;
+			case KIND_LONG_ARRAY:
+				return ((long[])val).length;
+			case KIND_STRING_ARRAY:
+				return ((String[])val).length;
 			default:
-				return new String[]{val.toString()};
+				return 1;
 		}
 	}
 
@@ -343,7 +577,17 @@ class DLValue
 	 */
 	public long getLong()
 	{
-		return (long)getDouble();
+		switch (kind)
+		{
+			case KIND_LONG:
+				return scalar;
+			case KIND_INT_ARRAY:
+				return ((int[])val)[0];
+			case KIND_LONG_ARRAY:
+				return ((long[])val)[0];
+			default:
+				return (long)getDouble();
+		}
 	}
 
 	/**
@@ -353,6 +597,9 @@ class DLValue
 	 */
 	public long[] getLongArray()
 	{
+		if (kind == KIND_LONG || kind == KIND_INT_ARRAY || kind == KIND_LONG_ARRAY)
+			return getLongArray(length());
+		
 		double[] da = getDoubleArray();
 		long[] out = new long[da.length];
 		int i = 0;
@@ -369,6 +616,29 @@ class DLValue
 	 */
 	public long[] getLongArray(int length)
 	{
+		switch (kind)
+		{
+			case KIND_LONG:
+			{
+				long[] out = new long[length];
+				if (length > 0)
+					out[0] = scalar;
+				return out;
+			}
+			case KIND_INT_ARRAY:
+			{
+				int[] ia = (int[])val;
+				long[] out = new long[length];
+				for (int i = 0; i < Math.min(ia.length, length); i++)
+					out[i] = ia[i];
+				return out;
+			}
+			case KIND_LONG_ARRAY:
+				return Arrays.copyOf((long[])val, length);
+			default:
+				break;
+		}
+		
 		double[] da = getDoubleArray();
 		if (da == null)
 			return null;
@@ -385,7 +655,16 @@ class DLValue
 	 */
 	public int getInt()
 	{
-		return (int)getDouble();
+		switch (kind)
+		{
+			case KIND_LONG:
+				// same as through a double: out-of-range values clamp.
+				return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, scalar));
+			case KIND_INT_ARRAY:
+				return ((int[])val)[0];
+			default:
+				return (int)getDouble();
+		}
 	}
 
 	/**
@@ -395,6 +674,9 @@ class DLValue
 	 */
 	public int[] getIntArray()
 	{
+		if (kind == KIND_INT_ARRAY)
+			return ((int[])val).clone();
+		
 		double[] da = getDoubleArray();
 		int[] out = new int[da.length];
 		int i = 0;
@@ -411,6 +693,9 @@ class DLValue
 	 */
 	public int[] getIntArray(int length)
 	{
+		if (kind == KIND_INT_ARRAY)
+			return Arrays.copyOf((int[])val, length);
+		
 		double[] da = getDoubleArray();
 		if (da == null)
 			return null;
@@ -468,7 +753,7 @@ class DLValue
 	 */
 	public char getChar()
 	{
-		if (type == DLValue.TYPE_NUMBER_ARRAY)
+		if (isNumeric())
 			return (char)getDouble();
 		else
 		{
@@ -484,9 +769,11 @@ class DLValue
 	 */
 	public char[] getCharArray()
 	{
-		if (type == DLValue.TYPE_NUMBER_ARRAY)
+		if (kind == KIND_NUMBER || kind == KIND_LONG || kind == KIND_STRING || kind == KIND_ID)
+			return new char[]{getChar()};
+		else if (isNumeric())
 		{
-			double[] da = (double[])val;
+			double[] da = kind == KIND_NUMBER_ARRAY ? (double[])val : getDoubleArray();
 			if (da == null)
 				return null;
 			char[] out = new char[da.length];
@@ -516,9 +803,16 @@ class DLValue
 	 */
 	public char[] getCharArray(int length)
 	{
-		if (type == DLValue.TYPE_NUMBER_ARRAY)
+		if (kind == KIND_NUMBER || kind == KIND_LONG || kind == KIND_STRING || kind == KIND_ID)
+		{
+			char[] out = new char[1];
+			if (length > 0)
+				out[0] = getChar();
+			return out;
+		}
+		else if (isNumeric())
 		{
-			double[] da = (double[])val;
+			double[] da = kind == KIND_NUMBER_ARRAY ? (double[])val : getDoubleArray();
 			if (da == null)
 				return null;
 			char[] out = new char[da.length];
@@ -623,24 +917,43 @@ class DLValue
 
 	/**
 	 * Copies this value completely, making another DLValue object.
+	 * Arrays that {@link #getVal()} returns are copied too, so changing them does not change this.
 	 */
 	public DLValue copy()
 	{
-		switch (type)
+		switch (kind)
 		{
-			case TYPE_NUMBER_ARRAY:
-				return new DLValue((double[])val);
-			case TYPE_STRING_ARRAY:
-				return new DLValue((String[])val);
-			case TYPE_ID:
+			case KIND_NUMBER:
+				return new DLValue(number());
+			case KIND_LONG:
+				return new DLValue(scalar);
+			case KIND_STRING:
+				return new DLValue((String)val);
+			case KIND_NUMBER_ARRAY:
+				return new DLValue(((double[])val).clone());
+			case KIND_INT_ARRAY:
+				return new DLValue((int[])val);
+			case KIND_LONG_ARRAY:
+				return new DLValue((long[])val);
+			case KIND_STRING_ARRAY:
+				return new DLValue(((String[])val).clone());
+			case KIND_ID:
 			default:
-				return new DLValue(((String[])val)[0],true);
+				return new DLValue((String)val,true);
 		}
 	}
 	
 	@Override
 	public String toString()
 	{
+		// no need to copy a lone string.
+		if (kind == KIND_STRING || kind == KIND_ID)
+			return (String)val;
+		if (kind == KIND_NUMBER || kind == KIND_LONG)
+			return getString();
+		if (kind == KIND_STRING_ARRAY && ((String[])val).length == 1)
+			return ((String[])val)[0];
+		
 		String[] s = getStringArray();
 		if (s.length == 1)
 			return s[0];
@@ -658,21 +971,85 @@ class DLValue
 	
 	/**
 	 * Returns true if <code>value</code> is equal to this one, false otherwise.
-	 * This actually just compares two values by their string representation.
+	 * This actually just compares two values by their string representation,
+	 * with equal numbers represented the same way whether they are kept as integers or doubles.
 	 */
 	public boolean equals(DLValue value)
 	{
-		return toString().equals(value.toString());
+		return key().equals(value.key());
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return key().hashCode();
+	}
+	
+	/**
+	 * Returns the string representation that values are compared and hashed by.
+	 * It is {@link #toString()}, except that integers are written the way an equal double is,
+	 * so that <code>10000000000</code> and <code>1e10</code> are equal.
+	 */
+	String key()
+	{
+		switch (kind)
+		{
+			case KIND_LONG:
+				return toKey(scalar);
+			case KIND_LONG_ARRAY:
+			{
+				long[] la = (long[])val;
+				if (la.length == 1)
+					return toKey(la[0]);
+				String[] out = new String[la.length];
+				for (int i = 0; i < la.length; i++)
+					out[i] = toKey(la[i]);
+				return Arrays.toString(out);
+			}
+			default:
+				// ints are written the same way either way.
+				return toString();
+		}
 	}
 	
 	public int getType()
 	{
-		return type;
+		switch (kind)
+		{
+			case KIND_NUMBER:
+			case KIND_LONG:
+			case KIND_INT_ARRAY:
+			case KIND_LONG_ARRAY:
+				return TYPE_NUMBER_ARRAY;
+			case KIND_STRING:
+				return TYPE_STRING_ARRAY;
+			default:
+				return kind;
+		}
 	}
 
+	/**
+	 * Returns this value's array: a <code>double[]</code> for {@link #TYPE_NUMBER_ARRAY},
+	 * or a <code>String[]</code> for the others. Arrays of doubles and strings are the value's 
+	 * own array, so changes to them change the value. Single numbers and strings, and identifiers, 
+	 * are returned in a new one-element array, and integers in a new <code>double[]</code>, 
+	 * so changes to those are not kept.
+	 */
 	public Object getVal()
 	{
-		return val;
+		switch (kind)
+		{
+			case KIND_NUMBER:
+			case KIND_LONG:
+			case KIND_INT_ARRAY:
+			case KIND_LONG_ARRAY:
+				return getDoubleArray();
+			case KIND_STRING:
+			case KIND_ID:
+				return new String[]{(String)val};
+			default:
+				return val;
+		}
 	}
 	
 }
@@ -7,11 +7,16 @@
  ******************************************************************************/
 package com.blackrook.dl;
 
-import static com.blackrook.dl.DLValue.TYPE_NUMBER_ARRAY;
-import static com.blackrook.dl.DLValue.TYPE_STRING_ARRAY;
+import static com.blackrook.dl.DLValue.KIND_ID;
+import static com.blackrook.dl.DLValue.KIND_INT_ARRAY;
+import static com.blackrook.dl.DLValue.KIND_LONG;
+import static com.blackrook.dl.DLValue.KIND_LONG_ARRAY;
+import static com.blackrook.dl.DLValue.KIND_NUMBER;
+import static com.blackrook.dl.DLValue.KIND_NUMBER_ARRAY;
+import static com.blackrook.dl.DLValue.KIND_STRING;
+import static com.blackrook.dl.DLValue.KIND_STRING_ARRAY;
 
 import java.io.*;
-import java.util.Iterator;
 
 import com.blackrook.commons.Common;
 
@@ -119,10 +124,49 @@ public class DLWriter
 			dlv = dls.getValue();
 			if (dlv != null)
 			{
-				switch (dlv.getType())
+				switch (dlv.kind)
 				{
-					case TYPE_NUMBER_ARRAY:
-						double[] d = ((double[])dlv.getVal());
+					case KIND_NUMBER:
+						out.print(" ");
+						if ((dlv.number()-(long)dlv.number())!=0.0)
+							out.print(dlv.number());
+						else
+							out.print((long)dlv.number());
+						out.println();
+						break;
+						
+					case KIND_LONG:
+						out.print(" "+dlv.scalar);
+						out.println();
+						break;
+						
+					case KIND_INT_ARRAY:
+					case KIND_LONG_ARRAY:
+						long[] l = dlv.kind == KIND_LONG_ARRAY ? (long[])dlv.val : dlv.getLongArray();
+						if (l.length == 0)
+						{
+							//do nothing
+						}
+						else if (l.length == 1)
+						{
+							out.print(" "+l[0]);
+						}
+						else
+						{
+							out.print(" [");
+							for (int i = 0; i < l.length; i++)
+								out.print(l[i] + (i == l.length-1 ? "]" : ", "));
+						}
+						out.println();
+						break;
+						
+					case KIND_STRING:
+						out.print(" \""+Common.withEscChars((String)dlv.val)+"\"");
+						out.println();
+						break;
+						
+					case KIND_NUMBER_ARRAY:
+						double[] d = ((double[])dlv.val);
 						if (d.length == 0)
 						{
 							//do nothing
@@ -150,15 +194,15 @@ public class DLWriter
 						out.println();
 						break;
 						
-					case TYPE_STRING_ARRAY:
-						String[] stra = ((String[])dlv.getVal());
+					case KIND_STRING_ARRAY:
+						String[] stra = ((String[])dlv.val);
 						if (stra.length == 0)
 						{
 							// do nothing
 						}
 						else if (stra.length == 1)
 						{
-							out.print(" \""+Common.withEscChars(((String[])dlv.getVal())[0])+"\"");						
+							out.print(" \""+Common.withEscChars(((String[])dlv.val)[0])+"\"");						
 						}
 						else
 						{
@@ -182,11 +226,53 @@ public class DLWriter
 		
 		for (String s : dls.getAllFields())
 		{
-			dlv = dls.getValue(s);
-			switch (dlv.getType())
+			dlv = dls.value(s);
+			switch (dlv.kind)
 			{
-				case TYPE_NUMBER_ARRAY:
-					double[] d = ((double[])dlv.getVal());
+				case KIND_NUMBER:
+					if ((dlv.number()-(long)dlv.number())!=0.0)
+						out.print(tabstr+"\t"+s+" "+dlv.number());
+					else
+						out.print(tabstr+"\t"+s+" "+(long)dlv.number());
+					out.print(";");
+					out.println();
+					break;
+					
+				case KIND_LONG:
+					out.print(tabstr+"\t"+s+" "+dlv.scalar);
+					out.print(";");
+					out.println();
+					break;
+					
+				case KIND_INT_ARRAY:
+				case KIND_LONG_ARRAY:
+					long[] l = dlv.kind == KIND_LONG_ARRAY ? (long[])dlv.val : dlv.getLongArray();
+					if (l.length == 0)
+					{
+						out.print(tabstr+"\t"+s+" 0");
+					}
+					else if (l.length == 1)
+					{
+						out.print(tabstr+"\t"+s+" "+l[0]);
+					}
+					else
+					{
+						out.print(tabstr+"\t"+s+" "+"[");
+						for (int i = 0; i < l.length; i++)
+							out.print(l[i] + (i == l.length-1 ? "]" : ", "));
+					}
+					out.print(";");
+					out.println();
+					break;
+					
+				case KIND_STRING:
+					out.print(tabstr+"\t"+s+" \""+Common.withEscChars((String)dlv.val)+"\"");
+					out.print(";");
+					out.println();
+					break;
+					
+				case KIND_NUMBER_ARRAY:
+					double[] d = ((double[])dlv.val);
 					if (d.length == 0)
 					{
 						out.print(tabstr+"\t"+s+" 0");
@@ -214,15 +300,15 @@ public class DLWriter
 					out.println();
 					break;
 					
-				case TYPE_STRING_ARRAY:
-					String[] stra = ((String[])dlv.getVal());
+				case KIND_STRING_ARRAY:
+					String[] stra = ((String[])dlv.val);
 					if (stra.length == 0)
 					{
 						out.print(tabstr+"\t"+s+" \"\"");
 					}
 					else if (stra.length == 1)
 					{
-						out.print(tabstr+"\t"+s+" \""+Common.withEscChars(((String[])dlv.getVal())[0])+"\"");						
+						out.print(tabstr+"\t"+s+" \""+Common.withEscChars(((String[])dlv.val)[0])+"\"");						
 					}
 					else
 					{
@@ -237,18 +323,16 @@ public class DLWriter
 					out.println();
 					break;
 					
-				case DLValue.TYPE_ID:
-					out.print(tabstr+"\t"+s+" "+((String[])dlv.getVal())[0]);
+				case KIND_ID:
+					out.print(tabstr+"\t"+s+" "+dlv.val);
 					break;
 			}
 		}
 
 //		out.println();
 		
-		Iterator<String> it = dls.keyIterator();
-		while (it.hasNext())
+		for (String s : dls.getAllTypes())
 		{
-			String s = it.next();
 			for (DLStruct st : dls.get(s))
 			{
 				export(s,st,out,tabs+1);